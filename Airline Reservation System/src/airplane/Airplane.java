@@ -5,6 +5,8 @@ package airplane;
 
 import java.util.Comparator;
 
+import flight.SeatClass;
+
 
 /**
  * This class holds values pertaining to a single Airplane. Class member attributes
@@ -211,6 +213,16 @@ public class Airplane implements Comparable<Airplane>, Comparator<Airplane> {
         return mFirstClassSeats;
     }
 
+    /**
+     * Get the # of seats for a seating class
+     *
+     * @param seatClass is the seating class
+     * @return The # of seats of that class
+     */
+    public int seats(SeatClass seatClass) {
+        return seatClass == SeatClass.COACH ? mCoachSeats : mFirstClassSeats;
+    }
+
 
     /**
      * Compare two airplanes
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package airplane;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class holds the shared Airplane instance of each airplane model.
+ * It is loaded from the server before any flights, so DaoFlight can link each
+ * flight to its airplane while parsing and searches never look the model up again.
+ */
+public enum AirplaneRegistry {
+    INSTANCE;
+
+    // [model, airplane]
+    private final Map<String, Airplane> mAirplanes = new ConcurrentHashMap<>();
+
+    // unknown models already reported
+    private final Set<String> mUnknownModels = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Load the airplanes, replacing any previously loaded model of the same name
+     *
+     * @param airplanes is the collection of airplanes from the server
+     */
+    public void load(Airplanes airplanes) {
+        for (Airplane a : airplanes) {
+            mAirplanes.put(a.model(), a);
+        }
+    }
+
+    /**
+     * Find the airplane of a model
+     * <p>
+     * A model that is not loaded is reported once, the first time it is seen.
+     *
+     * @param model is the airplane model of a flight
+     * @return the shared airplane, or null if the model is unknown
+     */
+    public Airplane get(String model) {
+        Airplane airplane = mAirplanes.get(model);
+        if (airplane == null && mUnknownModels.add(model)) {
+            System.out.println("Unknown airplane model " + model + ", its flights are skipped.");
+        }
+        return airplane;
+    }
+
+    /**
+     * Get the loaded airplanes by model
+     *
+     * @return unmodifiable view of [model, airplane]
+     */
+    public Map<String, Airplane> airplanes() {
+        return Collections.unmodifiableMap(mAirplanes);
+    }
+}
@@ -6,7 +6,9 @@ package airport;
 import java.util.Comparator;
 import java.time.ZoneId;
 
+import utils.Metrics;
 import utils.Saps;
+import utils.ZoneOffsetTable;
 
 /**
  * This class holds values pertaining to a single Airport. Class member attributes
@@ -35,7 +37,12 @@ public class Airport implements Comparable<Airport>, Comparator<Airport> {
 	
 	/** Longitude of the airport in decimal format */
 	private double mLongitude;         
-	private ZoneId mZoneId;
+
+	/** Time zone of the airport, resolved on first use */
+	private volatile ZoneId mZoneId;
+
+	/** UTC offsets of the airport zone over the schedule window, built on first use */
+	private volatile ZoneOffsetTable mOffsetTable;
 	/**
 	 * Default constructor
 	 * 
@@ -417,12 +424,61 @@ public class Airport implements Comparable<Airport>, Comparator<Airport> {
 		return isValidLongitude (lon);
 	}
 
+	/**
+	 * Resolve the time zone and offset table now rather than on first use
+	 */
 	public void generateZoneId(){
-		mZoneId = AirportZone.getZoneByAirport(this);
+		getOffsetTable();
 	}
 
+	/**
+	 * Get the time zone of the airport, resolving it from the position on the first call
+	 *
+	 * @pre latitude and longitude are set
+	 * @return time zone of the airport
+	 */
 	public ZoneId getZoneId(){
-		return mZoneId;
+		ZoneId zoneId = mZoneId;
+		if (zoneId == null) {
+			synchronized (this) {
+				if (mZoneId == null) {
+					long start = Metrics.start();
+					mZoneId = AirportZone.getZoneByAirport(this);
+					Metrics.INSTANCE.stop("airport.resolveZone", start);
+				}
+				zoneId = mZoneId;
+			}
+		}
+		return zoneId;
+	}
+
+	/**
+	 * Set an already resolved zone of the airport, e.g. one read from a startup snapshot
+	 *
+	 * @param zoneId is the time zone of the airport
+	 */
+	public synchronized void zoneId(ZoneId zoneId){
+		mZoneId = zoneId;
+		mOffsetTable = null;
+	}
+
+	/**
+	 * Get the UTC offset table of the airport zone, building it on the first call
+	 *
+	 * @return offset table used to convert GMT to local time
+	 */
+	public ZoneOffsetTable getOffsetTable(){
+		ZoneOffsetTable table = mOffsetTable;
+		if (table == null) {
+			ZoneId zoneId = getZoneId();
+			synchronized (this) {
+				if (mOffsetTable == null) {
+					mOffsetTable = ZoneOffsetTable.of(zoneId);
+				}
+				table = mOffsetTable;
+			}
+		}
+		return table;
 	}
 
 }
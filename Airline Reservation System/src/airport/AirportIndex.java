@@ -0,0 +1,55 @@
+package airport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import utils.GeoDistance;
+import utils.KdTree;
+
+/**
+ * This class is a spatial index over airports, answering "airports within 150 km of BOS"
+ * without scanning every airport. It is read only once built, so it can be shared
+ * between threads.
+ */
+public class AirportIndex {
+    private final KdTree<Airport> mTree;
+
+    /**
+     * Build the index
+     *
+     * @param airports are the airports to index
+     */
+    public AirportIndex(Collection<Airport> airports) {
+        List<Airport> values = new ArrayList<>(airports);
+        double[] latitudes = new double[values.size()];
+        double[] longitudes = new double[values.size()];
+        for (int i = 0; i < values.size(); i++) {
+            latitudes[i] = values.get(i).latitude();
+            longitudes[i] = values.get(i).longitude();
+        }
+        mTree = new KdTree<>(latitudes, longitudes, values);
+    }
+
+    /**
+     * Find the airports near an airport
+     *
+     * @param airport is the airport at the center of the search
+     * @param radiusKm is the largest great-circle distance from the airport
+     * @return airports within radiusKm, the airport itself first and the others nearest first
+     */
+    public List<Airport> nearby(Airport airport, double radiusKm) {
+        List<Airport> res = mTree.within(airport.latitude(), airport.longitude(), radiusKm);
+        res.sort(Comparator.comparingDouble((Airport a) -> a.equals(airport) ? -1.0
+                : GeoDistance.distanceKm(airport.latitude(), airport.longitude(), a.latitude(), a.longitude())));
+        return res;
+    }
+
+    /**
+     * Get the # of airports in the index
+     */
+    public int size() {
+        return mTree.size();
+    }
+}
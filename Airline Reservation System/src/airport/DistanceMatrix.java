@@ -0,0 +1,132 @@
+package airport;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import utils.GeoDistance;
+
+/**
+ * This class holds the great-circle distance between every pair of airports,
+ * computed once from their latitude/longitude. It is read only once built, so it
+ * can be shared between threads.
+ */
+public class DistanceMatrix {
+    // [upper case code, row]
+    private final Map<String, Integer> mIndex = new HashMap<>();
+    // row major km, float is precise enough and halves the size
+    private final float[] mDistances;
+    private final int mSize;
+
+    /**
+     * Build the matrix
+     *
+     * @param airports are the airports to include
+     */
+    public DistanceMatrix(Collection<Airport> airports) {
+        Airport[] ports = airports.toArray(new Airport[0]);
+        mSize = ports.length;
+        mDistances = new float[mSize * mSize];
+        for (int i = 0; i < mSize; i++) {
+            mIndex.put(ports[i].code().toUpperCase(), i);
+            for (int j = 0; j < i; j++) {
+                float d = (float) GeoDistance.distanceKm(ports[i].latitude(), ports[i].longitude(),
+                        ports[j].latitude(), ports[j].longitude());
+                mDistances[i * mSize + j] = d;
+                mDistances[j * mSize + i] = d;
+            }
+        }
+    }
+
+    /**
+     * Get the great-circle distance between two airports
+     *
+     * @param from is the code of one airport
+     * @param to is the code of the other airport
+     * @return distance in km, or NaN if either airport is unknown
+     */
+    public double distanceKm(String from, String to) {
+        return distanceKm(indexOf(from), indexOf(to));
+    }
+
+    /**
+     * Get the row of an airport, for the lookups by row that create no objects
+     *
+     * @param code is the airport code
+     * @return the row, or -1 if the airport is unknown
+     */
+    public int indexOf(String code) {
+        Integer i = mIndex.get(code.toUpperCase());
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Get the great-circle distance between two airports by row
+     *
+     * @return distance in km, or NaN if either row is -1
+     */
+    public double distanceKm(int from, int to) {
+        if (from < 0 || to < 0) return Double.NaN;
+        return mDistances[from * mSize + to];
+    }
+
+    /**
+     * Get the distance from an airport to the nearest of several airports
+     *
+     * @return distance in km, or NaN if none of the distances is known
+     */
+    public double distanceKm(String from, Collection<String> to) {
+        double min = Double.NaN;
+        for (String code : to) {
+            double d = distanceKm(from, code);
+            if (Double.isNaN(min) || d < min) min = d;
+        }
+        return min;
+    }
+
+    /**
+     * Check whether a partial itinerary is too long to be worth following
+     * <p>
+     * Any itinerary completed from here is at least travelledKm plus the direct distance
+     * from the current airport to the nearest target, so it is pruned when that exceeds
+     * detourFactor times the direct distance from the origin plus allowanceKm. The
+     * allowance keeps reasonable connections on short trips, where any hub is a detour.
+     *
+     * @param origin is the code of the airport the itinerary started at
+     * @param travelledKm is the distance flown so far
+     * @param current is the code of the airport the itinerary has reached
+     * @param targets are the codes of the airports the itinerary should end at
+     * @param detourFactor is the longest itinerary accepted as a multiple of the direct distance, 0 or less to never prune
+     * @param allowanceKm is the distance accepted on top of the multiple
+     * @return true if the itinerary can be pruned
+     */
+    public boolean isDetour(String origin, double travelledKm, String current, Collection<String> targets,
+                            double detourFactor, double allowanceKm) {
+        if (detourFactor <= 0) return false;
+        return isDetour(distanceKm(origin, targets), travelledKm, distanceKm(current, targets), detourFactor, allowanceKm);
+    }
+
+    /**
+     * Check whether a partial itinerary with a single target is too long to be worth following,
+     * see isDetour above; the airports are given by row
+     */
+    public boolean isDetour(int origin, double travelledKm, int current, int target,
+                            double detourFactor, double allowanceKm) {
+        if (detourFactor <= 0) return false;
+        return isDetour(distanceKm(origin, target), travelledKm, distanceKm(current, target), detourFactor, allowanceKm);
+    }
+
+    private static boolean isDetour(double direct, double travelledKm, double remaining,
+                                    double detourFactor, double allowanceKm) {
+        // unknown airports or a zero direct distance give no budget to compare against
+        if (Double.isNaN(direct) || Double.isNaN(remaining) || direct <= 0) return false;
+        return travelledKm + remaining > detourFactor * direct + allowanceKm;
+    }
+
+    /**
+     * Get the # of airports in the matrix
+     */
+    public int size() {
+        return mSize;
+    }
+}
@@ -0,0 +1,95 @@
+package airport;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import utils.KdTree;
+
+/**
+ * This class resolves the time zone of a latitude/longitude position without network access.
+ * <p>
+ * The bundled zone_references.csv lists reference positions with their zone, and a position
+ * resolves to the zone of its nearest reference, found through a k-d tree. Positions
+ * farther than MAX_REFERENCE_KM from every reference, at sea for instance, get the
+ * nautical zone of their longitude.
+ */
+public enum ZoneResolver {
+    INSTANCE;
+
+    public static final String REFERENCES = "zone_references.csv";
+
+    // beyond this distance the nearest reference is not trusted
+    public static final double MAX_REFERENCE_KM = 1000.0;
+
+    // bump when the way a position resolves to a zone changes, so zones saved by the old way are dropped
+    public static final int VERSION = 1;
+
+    private final KdTree<ZoneId> mReferences;
+
+    ZoneResolver() {
+        List<Double> latitudes = new ArrayList<>();
+        List<Double> longitudes = new ArrayList<>();
+        List<ZoneId> zones = new ArrayList<>();
+
+        try (InputStream in = ZoneResolver.class.getResourceAsStream(REFERENCES)) {
+            if (in == null) {
+                throw new IllegalStateException(REFERENCES + " not found on the classpath");
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                // latitude,longitude,zone,reference
+                String[] fields = line.split(",");
+                try {
+                    ZoneId zone = ZoneId.of(fields[2]);
+                    latitudes.add(Double.parseDouble(fields[0]));
+                    longitudes.add(Double.parseDouble(fields[1]));
+                    zones.add(zone);
+                } catch (DateTimeException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    System.out.println("Skipping zone reference: " + line);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + REFERENCES, e);
+        }
+
+        double[] lat = new double[zones.size()];
+        double[] lon = new double[zones.size()];
+        for (int i = 0; i < zones.size(); i++) {
+            lat[i] = latitudes.get(i);
+            lon[i] = longitudes.get(i);
+        }
+        mReferences = new KdTree<>(lat, lon, zones);
+    }
+
+    /**
+     * Resolve the time zone of a position
+     *
+     * @param latitude is the north/south coordinate in decimal degrees
+     * @param longitude is the east/west coordinate in decimal degrees
+     * @return zone of the nearest reference, or the nautical zone if there is none close by
+     */
+    public ZoneId resolve(double latitude, double longitude) {
+        ZoneId zone = mReferences.nearestWithin(latitude, longitude, MAX_REFERENCE_KM);
+        return zone != null ? zone : nauticalZone(longitude);
+    }
+
+    /**
+     * Get the nautical time zone of a longitude, whole hours from GMT
+     */
+    private static ZoneId nauticalZone(double longitude) {
+        int hours = (int) Math.round(longitude / 15.0);
+        // Etc/GMT zones have inverted signs, Etc/GMT+5 is 5 hours behind GMT
+        if (hours == 0) return ZoneId.of("Etc/GMT");
+        return ZoneId.of(hours < 0 ? "Etc/GMT+" + (-hours) : "Etc/GMT-" + hours);
+    }
+}
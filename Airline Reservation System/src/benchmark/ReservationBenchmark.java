@@ -0,0 +1,156 @@
+package benchmark;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import flight.Flight;
+import system.FlightController;
+import utils.LatencyHistogram;
+import utils.Metrics;
+
+/**
+ * Drives concurrent reservations through FlightController against a StandInServer and
+ * reports bookings per second, the latency of a booking, and how long the server lock was
+ * waited for and held, for each reservation strategy:
+ * <ul>
+ *   <li>direct: each client calls reserveFlights, one lock cycle per booking</li>
+ *   <li>queued: each client calls reserveAsync and waits for it, so bookings share lock cycles</li>
+ * </ul>
+ * Every client books single leg coach itineraries back to back. The server latency is
+ * added to every request, including the lock, unlock and the seat count refresh before each
+ * purchase. The other reservation settings are read from the usual -Dars properties; as in
+ * the application, reservations are journaled only if ars.reservationJournal is set.
+ * <p>
+ * Usage: java benchmark.ReservationBenchmark [clients] [bookings] [server latency ms] [direct|queued|both]
+ */
+public class ReservationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int bookings = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        String strategy = args.length > 3 ? args[3] : "both";
+
+        // the stand-in has room for every booking, so only contention refuses one
+        StandInServer server = new StandInServer(0, latencyMillis, 1_000_000, 1000);
+        // Saps reads these when it is loaded, which is when the controller is made
+        System.setProperty("ars.serverUrl", server.url());
+        System.setProperty("ars.referenceSnapshot", System.getProperty("ars.referenceSnapshot", ""));
+
+        PrintStream console = System.out;
+        FlightController controller = new FlightController();
+        List<List<Flight>> itineraries = itineraries(controller, server.airportCodes());
+        console.println(String.format("Clients: %d, bookings: %d, server latency: %d ms, itineraries: %d",
+                clients, bookings, latencyMillis, itineraries.size()));
+
+        try {
+            if (strategy.equals("direct") || strategy.equals("both")) {
+                run("direct", controller, itineraries, clients, bookings, server, console);
+            }
+            if (strategy.equals("queued") || strategy.equals("both")) {
+                run("queued", controller, itineraries, clients, bookings, server, console);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static List<List<Flight>> itineraries(FlightController controller, List<String> airports) {
+        List<List<Flight>> res = new ArrayList<>();
+        for (String airport : airports) {
+            for (int day = 10; day <= 12; day++) {
+                for (Flight f : controller.getFromMapOrServer(airport, "2019_05_" + day, "departing")) {
+                    res.add(Collections.singletonList(f));
+                }
+            }
+        }
+        Collections.shuffle(res, new Random(509));
+        return res;
+    }
+
+    private static void run(String strategy, FlightController controller, List<List<Flight>> itineraries,
+                            int clients, int bookings, StandInServer server, PrintStream console) throws InterruptedException {
+        Metrics.INSTANCE.reset();
+        long requestsBefore = server.requests();
+        long purchasesBefore = server.purchases();
+        long refusedLocksBefore = server.refusedLocks();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong booked = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Thread t = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int i;
+                while ((i = next.getAndIncrement()) < bookings) {
+                    List<Flight> itinerary = itineraries.get(i % itineraries.size());
+                    long start = System.nanoTime();
+                    boolean ok;
+                    if (strategy.equals("direct")) {
+                        ok = controller.reserveFlights(Collections.singletonList(itinerary), "Coach").get(0);
+                    } else {
+                        try {
+                            ok = controller.reserveAsync(itinerary, "Coach").get();
+                        } catch (InterruptedException e) {
+                            return;
+                        } catch (ExecutionException e) {
+                            ok = false;
+                        }
+                    }
+                    latency.record(System.nanoTime() - start);
+                    (ok ? booked : failed).incrementAndGet();
+                }
+            }, "benchmark-client-" + c);
+            threads.add(t);
+            t.start();
+        }
+        ready.await();
+
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        LatencyHistogram wait = Metrics.INSTANCE.timer("lock.wait");
+        LatencyHistogram held = Metrics.INSTANCE.timer("lock.held");
+        console.println();
+        console.println("Strategy: " + strategy);
+        console.println(String.format("  Throughput:   %10.1f bookings/s (%d booked, %d failed in %.2f s)",
+                booked.get() / (elapsed / 1e9), booked.get(), failed.get(), elapsed / 1e9));
+        console.println(String.format("  Latency (ms): p50 %8.2f  p90 %8.2f  p99 %8.2f  max %8.2f",
+                ms(latency.percentileNanos(50)), ms(latency.percentileNanos(90)),
+                ms(latency.percentileNanos(99)), ms(latency.maxNanos())));
+        console.println(String.format("  Lock wait:    p50 %8.2f  p90 %8.2f  p99 %8.2f  max %8.2f",
+                ms(wait.percentileNanos(50)), ms(wait.percentileNanos(90)),
+                ms(wait.percentileNanos(99)), ms(wait.maxNanos())));
+        console.println(String.format("  Lock held:    p50 %8.2f  p90 %8.2f  p99 %8.2f  max %8.2f  (%.1f%% of the run)",
+                ms(held.percentileNanos(50)), ms(held.percentileNanos(90)),
+                ms(held.percentileNanos(99)), ms(held.maxNanos()), 100.0 * held.totalNanos() / elapsed));
+        console.println(String.format("  Lock cycles:  %d, %.2f bookings each, %d lockDB refused",
+                held.count(), held.count() == 0 ? 0 : (double) booked.get() / held.count(),
+                server.refusedLocks() - refusedLocksBefore));
+        console.println(String.format("  Server:       %d requests, %d buyTickets applied",
+                server.requests() - requestsBefore, server.purchases() - purchasesBefore));
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
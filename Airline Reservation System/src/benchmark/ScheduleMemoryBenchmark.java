@@ -0,0 +1,84 @@
+package benchmark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import airplane.Airplane;
+import flight.Flight;
+import flight.FlightStore;
+import flight.SeatClass;
+import utils.Saps;
+
+/**
+ * Reports the heap used by a schedule held as Flight objects next to the
+ * heap and off heap memory used by the same schedule in a FlightStore.
+ * <p>
+ * Usage: java benchmark.ScheduleMemoryBenchmark [flights]
+ */
+public class ScheduleMemoryBenchmark {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        Airplane[] airplanes = {
+                new Airplane("Boeing", "747", 400, 50),
+                new Airplane("Airbus", "A320", 150, 12),
+                new Airplane("Boeing", "737", 120, 10)
+        };
+
+        long baseline = usedHeap();
+        List<Flight> onHeap = new ArrayList<>(count);
+        Random random = new Random(509);
+        for (int i = 0; i < count; i++) {
+            onHeap.add(flight(i, random, airplanes[i % airplanes.length]));
+        }
+        long onHeapBytes = usedHeap() - baseline;
+        Flight sample = onHeap.get(count / 2);
+        String sampleString = sample.toLocalString();
+        onHeap = null;
+
+        baseline = usedHeap();
+        FlightStore store = new FlightStore(count);
+        random = new Random(509);
+        for (int i = 0; i < count; i++) {
+            Airplane airplane = airplanes[i % airplanes.length];
+            store.add(flight(i, random, airplane));
+        }
+        long storeHeapBytes = usedHeap() - baseline;
+
+        if (!store.flight(store.recordOf(sample.number())).toLocalString().equals(sampleString)) {
+            throw new IllegalStateException("Store does not round trip " + sampleString);
+        }
+
+        System.out.println("Flights: " + count);
+        System.out.println(String.format("On heap:  %8.1f MB heap", onHeapBytes / 1e6));
+        System.out.println(String.format("Off heap: %8.1f MB heap, %8.1f MB off heap (%d byte records)",
+                storeHeapBytes / 1e6, store.offHeapBytes() / 1e6, FlightStore.RECORD_SIZE));
+        System.out.println("Seats left check: " + store.seatsRemaining(0, SeatClass.COACH));
+    }
+
+    private static Flight flight(int i, Random random, Airplane airplane) {
+        LocalDateTime dep = LocalDateTime.of(Saps.DEFAULT_YEAR, Saps.DEFAULT_MONTH, Saps.MIN_DATE, 0, 0)
+                .plusMinutes(random.nextInt(14 * 24 * 60));
+        int flightTime = 30 + random.nextInt(360);
+        Flight parsed = new Flight(airplane, flightTime, Integer.toString(10000 + i),
+                code(random.nextInt(52)), code(random.nextInt(52)), dep, dep.plusMinutes(flightTime),
+                String.format("$%,.2f", 100 + random.nextInt(90000) / 100.0),
+                String.format("$%,.2f", 50 + random.nextInt(30000) / 100.0),
+                random.nextInt(airplane.firstClassSeats()), random.nextInt(airplane.coachSeats()));
+        return new Flight(parsed, dep.minusHours(4), dep.plusMinutes(flightTime).minusHours(7));
+    }
+
+    private static String code(int i) {
+        return "" + (char) ('A' + i % 26) + (char) ('A' + i / 26) + 'X';
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,395 @@
+package benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import utils.GeoDistance;
+
+/**
+ * A local stand-in for the CS509 reservation server, for benchmarks.
+ * <p>
+ * It answers the same queries as the server: the airport and airplane lists, the departing
+ * and arriving flights of an airport on a day, lockDB, unlockDB and buyTickets. The schedule
+ * is generated: one flight a day between every pair of its airports over the days of the
+ * server database. The lock is held by one team at a time, and buyTickets is refused unless
+ * the team holds it and every leg has a seat left. Every request waits the given latency
+ * before it is answered, to stand in for the network and the server.
+ */
+public class StandInServer {
+
+    /**
+     * The path of the reservation system on the stand-in
+     */
+    public static final String PATH = "/CS509.server/ReservationSystem";
+
+    private static final String[][] AIRPORTS = {
+            {"BOS", "Logan International", "42.365613", "-71.00956"},
+            {"JFK", "John F. Kennedy International", "40.641311", "-73.778139"},
+            {"ATL", "Hartsfield-Jackson Atlanta International", "33.640728", "-84.427700"},
+            {"ORD", "Chicago O'Hare International", "41.974162", "-87.907321"},
+            {"DFW", "Dallas/Fort Worth International", "32.899809", "-97.040335"},
+            {"DEN", "Denver International", "39.856096", "-104.673738"},
+            {"SEA", "Seattle-Tacoma International", "47.450250", "-122.308817"},
+            {"SFO", "San Francisco International", "37.621313", "-122.378955"},
+            {"LAX", "Los Angeles International", "33.941589", "-118.408530"},
+            {"MIA", "Miami International", "25.795865", "-80.287046"}
+    };
+    // the days of the server database, see Saps; not read from Saps, so a benchmark can still set
+    // ars.serverUrl to this server before Saps is loaded
+    private static final int YEAR = 2019;
+    private static final int MONTH = 5;
+    private static final int FIRST_DAY = 4;
+    private static final int LAST_DAY = 18;
+    private static final String MODEL = "747";
+    private static final Pattern LEG = Pattern.compile("number=\"([^\"]*)\"\\s+seating=\"([^\"]*)\"");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final int coachSeats;
+    private final int firstClassSeats;
+    private final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("yyyy MMM dd HH:mm 'GMT'", Locale.US);
+    // [flight number, flight], and the flights by airport and day for the lists
+    private final Map<String, ScheduledFlight> flights = new HashMap<>();
+    private final Map<String, List<ScheduledFlight>> departing = new HashMap<>();
+    private final Map<String, List<ScheduledFlight>> arriving = new HashMap<>();
+    // team holding the lock, null if unlocked; guarded by this
+    private String lockedBy;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong purchases = new AtomicLong();
+    private final AtomicLong refusedPurchases = new AtomicLong();
+    private final AtomicLong refusedLocks = new AtomicLong();
+
+    // a generated flight and its reserved seats, guarded by the server
+    private static class ScheduledFlight {
+        final String number;
+        final String departure;
+        final String arrival;
+        final LocalDateTime departureTime;
+        final int flightTime;
+        int coachReserved;
+        int firstClassReserved;
+
+        ScheduledFlight(String number, String departure, String arrival, LocalDateTime departureTime, int flightTime) {
+            this.number = number;
+            this.departure = departure;
+            this.arrival = arrival;
+            this.departureTime = departureTime;
+            this.flightTime = flightTime;
+        }
+    }
+
+    /**
+     * Generate the schedule and start serving
+     *
+     * @param port is the port to listen on, 0 for any free port
+     * @param latencyMillis is how long each request waits before it is answered
+     * @param coachSeats is the # of coach seats on every flight
+     * @param firstClassSeats is the # of first class seats on every flight
+     * @throws IOException if the port cannot be bound
+     */
+    public StandInServer(int port, long latencyMillis, int coachSeats, int firstClassSeats) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.coachSeats = coachSeats;
+        this.firstClassSeats = firstClassSeats;
+        generateSchedule();
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 256);
+        server.createContext(PATH, this::handle);
+        // requests wait out their latency side by side, as they would on a real server
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "stand-in-server");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Get the URL to set as ars.serverUrl
+     */
+    public String url() {
+        return "http://localhost:" + server.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * Get the codes of the airports served
+     */
+    public List<String> airportCodes() {
+        List<String> codes = new ArrayList<>();
+        for (String[] a : AIRPORTS) {
+            codes.add(a[0]);
+        }
+        return codes;
+    }
+
+    /**
+     * Get the # of requests answered
+     */
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * Get the # of buyTickets requests applied
+     */
+    public long purchases() {
+        return purchases.get();
+    }
+
+    /**
+     * Get the # of buyTickets requests refused
+     */
+    public long refusedPurchases() {
+        return refusedPurchases.get();
+    }
+
+    /**
+     * Get the # of lockDB requests refused because another team held the lock
+     */
+    public long refusedLocks() {
+        return refusedLocks.get();
+    }
+
+    /**
+     * Stop serving
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void generateSchedule() {
+        int n = 0;
+        for (int day = FIRST_DAY; day <= LAST_DAY; day++) {
+            for (int i = 0; i < AIRPORTS.length; i++) {
+                for (int j = 0; j < AIRPORTS.length; j++) {
+                    if (i == j) continue;
+                    double km = GeoDistance.distanceKm(Double.parseDouble(AIRPORTS[i][2]), Double.parseDouble(AIRPORTS[i][3]),
+                            Double.parseDouble(AIRPORTS[j][2]), Double.parseDouble(AIRPORTS[j][3]));
+                    LocalDateTime dep = LocalDateTime.of(YEAR, MONTH, day, (i * 7 + j * 3) % 24, (j * 10) % 60);
+                    ScheduledFlight f = new ScheduledFlight(Integer.toString(1000 + n++), AIRPORTS[i][0], AIRPORTS[j][0],
+                            dep, 30 + (int) (km / 800 * 60));
+                    flights.put(f.number, f);
+                    departing.computeIfAbsent(f.departure + dayOf(f.departureTime), k -> new ArrayList<>()).add(f);
+                    LocalDateTime arr = f.departureTime.plusMinutes(f.flightTime);
+                    arriving.computeIfAbsent(f.arrival + dayOf(arr), k -> new ArrayList<>()).add(f);
+                }
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            Map<String, String> params;
+            if ("POST".equals(exchange.getRequestMethod())) {
+                params = parseBody(readBody(exchange.getRequestBody()));
+            } else {
+                params = parseQuery(exchange.getRequestURI().getRawQuery());
+            }
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            String team = params.get("team");
+            String action = params.get("action");
+            if (team == null || action == null) {
+                respond(exchange, 400, "");
+                return;
+            }
+            switch (action) {
+                case "list":
+                    list(exchange, params);
+                    break;
+                case "lockDB":
+                    respond(exchange, lock(team) ? 200 : 409, "");
+                    break;
+                case "unlockDB":
+                    respond(exchange, unlock(team) ? 200 : 409, "");
+                    break;
+                case "buyTickets":
+                    respond(exchange, buy(team, params.getOrDefault("flightData", "")), "");
+                    break;
+                default:
+                    respond(exchange, 400, "");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void list(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String type = params.getOrDefault("list_type", "");
+        StringBuilder sb = new StringBuilder();
+        switch (type) {
+            case "airports":
+                sb.append("<Airports>");
+                for (String[] a : AIRPORTS) {
+                    sb.append("<Airport Name=\"").append(a[1]).append("\" Code=\"").append(a[0]).append("\">")
+                            .append("<Latitude>").append(a[2]).append("</Latitude>")
+                            .append("<Longitude>").append(a[3]).append("</Longitude></Airport>");
+                }
+                sb.append("</Airports>");
+                break;
+            case "airplanes":
+                sb.append("<Airplanes><Airplane Manufacturer=\"Boeing\" Model=\"").append(MODEL).append("\">")
+                        .append("<CoachSeats>").append(coachSeats).append("</CoachSeats>")
+                        .append("<FirstClassSeats>").append(firstClassSeats).append("</FirstClassSeats>")
+                        .append("</Airplane></Airplanes>");
+                break;
+            case "departing":
+            case "arriving":
+                String key = params.getOrDefault("airport", "") + params.getOrDefault("day", "");
+                List<ScheduledFlight> list = (type.equals("departing") ? departing : arriving).get(key);
+                sb.append("<Flights>");
+                if (list != null) {
+                    synchronized (this) {
+                        for (ScheduledFlight f : list) {
+                            appendFlight(sb, f);
+                        }
+                    }
+                }
+                sb.append("</Flights>");
+                break;
+            default:
+                respond(exchange, 400, "");
+                return;
+        }
+        respond(exchange, 200, sb.toString());
+    }
+
+    private void appendFlight(StringBuilder sb, ScheduledFlight f) {
+        sb.append("<Flight Airplane=\"").append(MODEL).append("\" FlightTime=\"").append(f.flightTime)
+                .append("\" Number=\"").append(f.number).append("\">")
+                .append("<Departure><Code>").append(f.departure).append("</Code><Time>")
+                .append(timeFormat.format(f.departureTime)).append("</Time></Departure>")
+                .append("<Arrival><Code>").append(f.arrival).append("</Code><Time>")
+                .append(timeFormat.format(f.departureTime.plusMinutes(f.flightTime))).append("</Time></Arrival>")
+                .append("<Seating><FirstClass Price=\"$").append(100 + f.flightTime * 2).append(".00\">")
+                .append(f.firstClassReserved).append("</FirstClass>")
+                .append("<Coach Price=\"$").append(50 + f.flightTime / 2).append(".00\">")
+                .append(f.coachReserved).append("</Coach></Seating></Flight>");
+    }
+
+    private synchronized boolean lock(String team) {
+        if (lockedBy != null && !lockedBy.equals(team)) {
+            refusedLocks.incrementAndGet();
+            return false;
+        }
+        lockedBy = team;
+        return true;
+    }
+
+    private synchronized boolean unlock(String team) {
+        if (lockedBy != null && !lockedBy.equals(team)) return false;
+        lockedBy = null;
+        return true;
+    }
+
+    // apply every leg or none, like the server
+    private synchronized int buy(String team, String flightData) {
+        if (!team.equals(lockedBy)) {
+            refusedPurchases.incrementAndGet();
+            return 412;
+        }
+        Map<ScheduledFlight, int[]> wanted = new LinkedHashMap<>();
+        Matcher m = LEG.matcher(flightData);
+        while (m.find()) {
+            ScheduledFlight f = flights.get(m.group(1));
+            boolean coach = m.group(2).equals("Coach");
+            if (f == null || !(coach || m.group(2).equals("FirstClass"))) {
+                refusedPurchases.incrementAndGet();
+                return 400;
+            }
+            wanted.computeIfAbsent(f, k -> new int[2])[coach ? 0 : 1]++;
+        }
+        if (wanted.isEmpty()) {
+            refusedPurchases.incrementAndGet();
+            return 400;
+        }
+        for (Map.Entry<ScheduledFlight, int[]> e : wanted.entrySet()) {
+            ScheduledFlight f = e.getKey();
+            if (f.coachReserved + e.getValue()[0] > coachSeats
+                    || f.firstClassReserved + e.getValue()[1] > firstClassSeats) {
+                refusedPurchases.incrementAndGet();
+                return 409;
+            }
+        }
+        for (Map.Entry<ScheduledFlight, int[]> e : wanted.entrySet()) {
+            e.getKey().coachReserved += e.getValue()[0];
+            e.getKey().firstClassReserved += e.getValue()[1];
+        }
+        purchases.incrementAndGet();
+        return 202;
+    }
+
+    private static String dayOf(LocalDateTime t) {
+        return String.format("%04d_%02d_%02d", t.getYear(), t.getMonthValue(), t.getDayOfMonth());
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // a body is form-encoded like a query, the flightData of buyTickets included
+    private static Map<String, String> parseBody(String body) {
+        return parseQuery(body);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            try {
+                params.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            } catch (IllegalArgumentException | IOException e) {
+                params.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package benchmark;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Random;
+
+import utils.Saps;
+import utils.TimeConverter;
+import utils.ZoneOffsetTable;
+
+/**
+ * Compares the GMT to local time conversion through ZonedDateTime with the
+ * precomputed zone offset tables, on a full day of departures and arrivals.
+ * <p>
+ * Usage: java benchmark.TimeConversionBenchmark [flightsPerDay] [rounds]
+ */
+public class TimeConversionBenchmark {
+
+    // zones of the airports served by the CS509 server
+    private static final String[] ZONES = {
+            "America/New_York", "America/Chicago", "America/Denver", "America/Phoenix",
+            "America/Los_Angeles", "America/Anchorage", "Pacific/Honolulu", "America/Detroit",
+            "America/Indiana/Indianapolis", "America/Boise"
+    };
+
+    public static void main(String[] args) {
+        int flightsPerDay = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        // one day of flights: departure/arrival GMT times and airport zones
+        Random random = new Random(509);
+        LocalDateTime day = LocalDateTime.of(Saps.DEFAULT_YEAR, Saps.DEFAULT_MONTH, Saps.MIN_DATE + 5, 0, 0);
+        LocalDateTime[] times = new LocalDateTime[flightsPerDay * 2];
+        ZoneId[] zones = new ZoneId[times.length];
+        ZoneOffsetTable[] tables = new ZoneOffsetTable[times.length];
+        for (int i = 0; i < flightsPerDay; i++) {
+            LocalDateTime dep = day.plusMinutes(random.nextInt(24 * 60));
+            times[2 * i] = dep;
+            times[2 * i + 1] = dep.plusMinutes(30 + random.nextInt(360));
+        }
+        for (int i = 0; i < times.length; i++) {
+            zones[i] = ZoneId.of(ZONES[random.nextInt(ZONES.length)]);
+            tables[i] = ZoneOffsetTable.of(zones[i]);
+        }
+
+        // both paths must agree before timing them
+        for (int i = 0; i < times.length; i++) {
+            if (!TimeConverter.convertTimeByZoneId(times[i], zones[i]).equals(TimeConverter.convertTimeByTable(times[i], tables[i]))) {
+                throw new IllegalStateException("Mismatch at " + times[i] + " " + zones[i]);
+            }
+        }
+
+        long zonedBest = Long.MAX_VALUE;
+        long tableBest = Long.MAX_VALUE;
+        long sink = 0;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < times.length; i++) {
+                sink += TimeConverter.convertTimeByZoneId(times[i], zones[i]).getHour();
+            }
+            zonedBest = Math.min(zonedBest, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < times.length; i++) {
+                sink += TimeConverter.convertTimeByTable(times[i], tables[i]).getHour();
+            }
+            tableBest = Math.min(tableBest, System.nanoTime() - start);
+        }
+
+        System.out.println("Conversions per day: " + times.length + " (" + flightsPerDay + " flights)");
+        System.out.println(String.format("ZonedDateTime: %8.1f ns/conversion, %6.2f ms/day",
+                (double) zonedBest / times.length, zonedBest / 1e6));
+        System.out.println(String.format("Offset table:  %8.1f ns/conversion, %6.2f ms/day",
+                (double) tableBest / times.length, tableBest / 1e6));
+        System.out.println(String.format("Speedup: %.1fx (checksum %d)", (double) zonedBest / tableBest, sink));
+    }
+}
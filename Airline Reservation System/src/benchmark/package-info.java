@@ -0,0 +1,4 @@
+/**
+ * Stand-alone benchmark programs for the performance sensitive paths of ARS.
+ */
+package benchmark;
@@ -20,6 +20,7 @@ import org.xml.sax.SAXException;
 
 import airplane.Airplane;
 import airplane.Airplanes;
+import utils.Metrics;
 
 
 public class DaoAirplane {
@@ -43,6 +44,7 @@ public class DaoAirplane {
      */
     public static Airplanes addAll (String xmlAirplanes) throws NullPointerException {
 
+        long start = Metrics.start();
         Airplanes airplanes = new Airplanes();
 
         // Load the XML string into a DOM tree for ease of processing
@@ -59,6 +61,7 @@ public class DaoAirplane {
             }
         }
 
+        Metrics.INSTANCE.stop("dao.parseAirplanes", start);
         return airplanes;
     }
 
@@ -20,6 +20,7 @@ import org.xml.sax.SAXException;
 
 import airport.Airport;
 import airport.Airports;
+import utils.Metrics;
 
 
 public class DaoAirport {
@@ -42,6 +43,7 @@ public class DaoAirport {
 	 * @post the [possibly empty] set of Airports in the XML string are added to collection
 	 */
 	public static Airports addAll (String xmlAirports) throws NullPointerException {
+		long start = Metrics.start();
 		Airports airports = new Airports();
 		
 		// Load the XML string into a DOM tree for ease of processing
@@ -58,6 +60,7 @@ public class DaoAirport {
 			}
 		}
 		
+		Metrics.INSTANCE.stop("dao.parseAirports", start);
 		return airports;
 	}
 
@@ -99,7 +102,6 @@ public class DaoAirport {
 		airport.code(code);
 		airport.latitude(latitude);
 		airport.longitude(longitude);
-		airport.generateZoneId();
 		
 		return airport;
 	}
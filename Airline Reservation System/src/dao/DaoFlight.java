@@ -15,8 +15,11 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import airplane.Airplane;
+import airplane.AirplaneRegistry;
 import flight.Flight;
 import flight.Flights;
+import utils.Metrics;
 import java.time.LocalDateTime;
 
 import java.time.format.DateTimeFormatter;
@@ -33,7 +36,8 @@ public class DaoFlight {
      * <p>
      * Method iterates over the set of Flights nodes in the XML string and builds
      * a flight object from the XML node string and add the Flight object instance to
-     * the Flights collection.
+     * the Flights collection. Each flight is linked to its airplane in the AirplaneRegistry,
+     * which must be loaded first; flights of unknown models are skipped.
      *
      * @param xmlFlights XML string containing set of flights
      * @return [possibly empty] collection of Flights in the xml string
@@ -43,6 +47,7 @@ public class DaoFlight {
      */
     public static Flights addAll(String xmlFlights) throws NullPointerException {
 
+        long start = Metrics.start();
         Flights flights = new Flights();
 
         // Load the XML string into a DOM tree for ease of processing
@@ -59,6 +64,8 @@ public class DaoFlight {
             }
         }
 
+        Metrics.INSTANCE.stop("dao.parseFlights", start);
+        Metrics.INSTANCE.count("dao.flightsParsed", flights.size());
         return flights;
 
     }
@@ -68,14 +75,16 @@ public class DaoFlight {
      *
      * Processes a DOM Node that describes an Flight and creates an Flight object from the information
      * @param nodeFlight is a DOM Node describing an Flight
-     * @return Flight object created from the DOM Node representation of the Flight
+     * @return Flight object created from the DOM Node representation of the Flight,
+     *         or null if the airplane model is not in the AirplaneRegistry
      *
      * @pre nodeFlight is of format specified by CS509 server API
      * @post flight object instantiated. Caller responsible for deallocating memory.
      */
     static private Flight buildFlight (Node nodeFlight) {
 
-        String airplane;
+        String model;
+        Airplane airplane;
         int flightTime;
         String number;
         String departureAirport;
@@ -94,7 +103,12 @@ public class DaoFlight {
 
         // The flight element has attributes of airplane, flightTime, and number
         Element elementFlight = (Element) nodeFlight;
-        airplane = elementFlight.getAttributeNode("Airplane").getValue();
+        model = elementFlight.getAttributeNode("Airplane").getValue();
+        // link the shared airplane once, unknown models are reported by the registry
+        airplane = AirplaneRegistry.INSTANCE.get(model);
+        if (airplane == null) {
+            return null;
+        }
         flightTime = Integer.valueOf(elementFlight.getAttributeNode("FlightTime").getValue());
         number = elementFlight.getAttribute("Number");
 
@@ -135,21 +149,12 @@ public class DaoFlight {
 
 
         /**
-         * Instantiate an empty Flight object and initialize with data from XML node
+         * Instantiate the Flight object with data from XML node
          */
-        Flight flight = new Flight();
-
-        flight.airplane(airplane);
-        flight.flightTime(flightTime);
-        flight.number(number);
-        flight.departureAirport(departureAirport);
-        flight.departureTime(departureTime);
-        flight.arrivalAirport(arrivalAirport);
-        flight.arrivalTime(arrivalTime);
-        flight.coachPrice(coachPrice);
-        flight.coachReserved(coachReserved);
-        flight.firstClassPrice(firsClassPrice);
-        flight.firstClassReserved(firstClassReserved);
+        Flight flight = new Flight(airplane, flightTime, number, departureAirport,
+                arrivalAirport, departureTime, arrivalTime,
+                firsClassPrice, coachPrice,
+                firstClassReserved, coachReserved);
 
         return flight;
     }
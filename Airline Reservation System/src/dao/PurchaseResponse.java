@@ -0,0 +1,34 @@
+/**
+ *
+ */
+package dao;
+
+/**
+ * This class holds the result of a buyTickets request: the outcome and the HTTP response
+ * code of the server, kept for the reservation journal.
+ */
+public class PurchaseResponse {
+    // response code when the server never answered
+    public static final int NO_RESPONSE = -1;
+
+    private final ReservationOutcome mOutcome;
+    private final int mResponseCode;
+
+    public PurchaseResponse(ReservationOutcome outcome, int responseCode) {
+        mOutcome = outcome;
+        mResponseCode = responseCode;
+    }
+
+    public ReservationOutcome outcome() {
+        return mOutcome;
+    }
+
+    /**
+     * Get the HTTP response code
+     *
+     * @return the response code, or NO_RESPONSE if the server did not answer
+     */
+    public int responseCode() {
+        return mResponseCode;
+    }
+}
@@ -0,0 +1,223 @@
+package dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.zip.CRC32;
+
+import airplane.Airplane;
+import airplane.Airplanes;
+import airport.Airport;
+import airport.Airports;
+import airport.ZoneResolver;
+
+/**
+ * This class reads and writes a compact binary snapshot of the airports and airplanes.
+ * <p>
+ * The reference data almost never changes on the server, so the snapshot written after a
+ * load lets the next start skip both fetches and the zone resolution. The file layout is
+ * <pre>
+ *   int  MAGIC, int VERSION, long saved at (epoch ms), long fingerprint, long zone fingerprint
+ *   int  # of airplanes, then per airplane: manufacturer, model, coach seats, first class seats
+ *   int  # of airports, then per airport: name, code, latitude, longitude, zone id
+ * </pre>
+ * The fingerprint covers the server data only (not the zones), so it can be compared with
+ * a fresh fetch to find out whether the snapshot is stale. The zone fingerprint covers the
+ * ZoneResolver references and version the zones were resolved with; a snapshot resolved
+ * with other zone data is ignored.
+ */
+public class ReferenceSnapshot {
+    private static final int MAGIC = 0x41525352; // "ARSR"
+    // bump when the layout changes, older snapshots are then ignored
+    private static final int VERSION = 2;
+
+    private final Airplanes mAirplanes;
+    private final Airports mAirports;
+    private final long mSavedAt;
+    private final long mFingerprint;
+
+    private ReferenceSnapshot(Airplanes airplanes, Airports airports, long savedAt, long fingerprint) {
+        mAirplanes = airplanes;
+        mAirports = airports;
+        mSavedAt = savedAt;
+        mFingerprint = fingerprint;
+    }
+
+    public Airplanes airplanes() {
+        return mAirplanes;
+    }
+
+    /**
+     * Get the airports, each with its zone already set
+     */
+    public Airports airports() {
+        return mAirports;
+    }
+
+    /**
+     * Get the time the snapshot was written in epoch ms
+     */
+    public long savedAt() {
+        return mSavedAt;
+    }
+
+    public long fingerprint() {
+        return mFingerprint;
+    }
+
+    /**
+     * Read a snapshot
+     *
+     * @param file is the snapshot file
+     * @return the snapshot, or null if there is none or it cannot be used
+     */
+    public static ReferenceSnapshot read(File file) {
+        if (!file.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.out.println("Ignoring reference snapshot " + file + " written by another version.");
+                return null;
+            }
+            long savedAt = in.readLong();
+            long fingerprint = in.readLong();
+            if (in.readLong() != zoneFingerprint()) {
+                System.out.println("Ignoring reference snapshot " + file + " resolved with other zone data.");
+                return null;
+            }
+
+            Airplanes airplanes = new Airplanes();
+            int airplaneCount = in.readInt();
+            for (int i = 0; i < airplaneCount; i++) {
+                airplanes.add(new Airplane(in.readUTF(), in.readUTF(), in.readInt(), in.readInt()));
+            }
+
+            Airports airports = new Airports();
+            int airportCount = in.readInt();
+            for (int i = 0; i < airportCount; i++) {
+                Airport airport = new Airport(in.readUTF(), in.readUTF(), in.readDouble(), in.readDouble());
+                airport.zoneId(ZoneId.of(in.readUTF()));
+                airports.add(airport);
+            }
+            return new ReferenceSnapshot(airplanes, airports, savedAt, fingerprint);
+        } catch (IOException | IllegalArgumentException | DateTimeException e) {
+            System.out.println("Ignoring unreadable reference snapshot " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Write a snapshot, replacing the file only once it is complete.
+     * Airports that have not resolved their zone yet resolve it here.
+     *
+     * @param file is the snapshot file
+     * @param airplanes is the collection of airplanes from the server
+     * @param airports is the collection of airports from the server
+     * @return true if the snapshot was written
+     */
+    public static boolean write(File file, Airplanes airplanes, Airports airports) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(fingerprint(airplanes, airports));
+            out.writeLong(zoneFingerprint());
+            writeAirplanes(out, airplanes);
+            out.writeInt(airports.size());
+            for (Airport a : airports) {
+                writeAirport(out, a);
+                out.writeUTF(a.getZoneId().getId());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return false;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fingerprint the reference data as sent by the server
+     *
+     * @return checksum of the airplanes and airports, in order, without their zones
+     */
+    public static long fingerprint(Airplanes airplanes, Airports airports) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeAirplanes(out, airplanes);
+            out.writeInt(airports.size());
+            for (Airport a : airports) {
+                writeAirport(out, a);
+            }
+        } catch (IOException e) {
+            // cannot happen on a byte array
+            throw new IllegalStateException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        return crc.getValue();
+    }
+
+    /**
+     * Fingerprint the zone data: the ZoneResolver version and distance limit, and its references.
+     * The references are read as bytes, so the resolver itself is not built.
+     *
+     * @return checksum that changes when an airport may resolve to another zone
+     * @throws IOException if the references cannot be read
+     */
+    static long zoneFingerprint() throws IOException {
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(ZoneResolver.VERSION);
+            out.writeDouble(ZoneResolver.MAX_REFERENCE_KM);
+        }
+        crc.update(bytes.toByteArray());
+        try (InputStream in = ZoneResolver.class.getResourceAsStream(ZoneResolver.REFERENCES)) {
+            if (in == null) {
+                throw new IOException(ZoneResolver.REFERENCES + " not found on the classpath");
+            }
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void writeAirplanes(DataOutputStream out, Airplanes airplanes) throws IOException {
+        out.writeInt(airplanes.size());
+        for (Airplane a : airplanes) {
+            out.writeUTF(a.manufacturer());
+            out.writeUTF(a.model());
+            out.writeInt(a.coachSeats());
+            out.writeInt(a.firstClassSeats());
+        }
+    }
+
+    private static void writeAirport(DataOutputStream out, Airport a) throws IOException {
+        out.writeUTF(a.name());
+        out.writeUTF(a.code());
+        out.writeDouble(a.latitude());
+        out.writeDouble(a.longitude());
+    }
+}
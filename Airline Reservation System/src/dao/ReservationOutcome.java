@@ -0,0 +1,16 @@
+/**
+ *
+ */
+package dao;
+
+/**
+ * Outcome of a buyTickets request to the CS509 server.
+ */
+public enum ReservationOutcome {
+    // the server bought the tickets
+    RESERVED,
+    // the server refused the purchase, or never got the request
+    REJECTED,
+    // the request was sent but no response came back, the server may or may not have applied it
+    UNKNOWN
+}
@@ -4,17 +4,23 @@
 package dao;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 import airport.Airports;
 import airplane.Airplanes;
 import flight.Flights;
+import utils.Metrics;
 import utils.QueryFactory;
+import utils.Saps;
 
 
 /**
@@ -27,7 +33,7 @@ public enum ServerInterface {
 	/** 
 	 * mUrlBase is the Universal Resource Locator (web address) of the CS509 reservation server
 	 */
-	private final String mUrlBase = "http://cs509.cs.wpi.edu:8181/CS509.server/ReservationSystem";
+	private final String mUrlBase = Saps.SERVER_URL;
 
 	/**
 	 * Return a collection of all the airports from server
@@ -48,6 +54,7 @@ public enum ServerInterface {
 		String xmlAirports;
 		Airports airports;
 
+		long start = Metrics.start();
 		try {
 			/**
 			 * Create an HTTP connection to the server for a GET
@@ -75,11 +82,15 @@ public enum ServerInterface {
 				reader.close();
 			}
 		} catch (IOException e) {
+			Metrics.INSTANCE.count("server.errors");
 			e.printStackTrace();
 			return null;
 		} catch (Exception e) {
+			Metrics.INSTANCE.count("server.errors");
 			e.printStackTrace();
 			return null;
+		} finally {
+			Metrics.INSTANCE.stop("server.getAirports", start);
 		}
 
 		xmlAirports = result.toString();
@@ -107,6 +118,7 @@ public enum ServerInterface {
 		String xmlAirplanes;
 		Airplanes airplanes;
 
+		long start = Metrics.start();
 		try {
 			/**
 		 	* Create an HTTP connection to the server for a GET
@@ -134,11 +146,15 @@ public enum ServerInterface {
 				reader.close();
 			}
 		} catch (IOException e) {
+			Metrics.INSTANCE.count("server.errors");
 			e.printStackTrace();
 			return null;
 		} catch (Exception e) {
+			Metrics.INSTANCE.count("server.errors");
 			e.printStackTrace();
 			return null;
+		} finally {
+			Metrics.INSTANCE.stop("server.getAirplanes", start);
 		}
 
 		xmlAirplanes = result.toString();
@@ -168,6 +184,7 @@ public enum ServerInterface {
 		String xmlFlights;
 		Flights flights;
 
+		long start = Metrics.start();
 		try {
 			/**
 			 * Create an HTTP connection to the server for a GET
@@ -196,11 +213,15 @@ public enum ServerInterface {
 				reader.close();
 			}
 		} catch (IOException e) {
+			Metrics.INSTANCE.count("server.errors");
 			e.printStackTrace();
 			return null;
 		} catch (Exception e) {
+			Metrics.INSTANCE.count("server.errors");
 			e.printStackTrace();
 			return null;
+		} finally {
+			Metrics.INSTANCE.stop("server.getFlights", start);
 		}
 
 		xmlFlights = result.toString();
@@ -222,6 +243,7 @@ public enum ServerInterface {
 		URL url;
 		HttpURLConnection connection;
 
+		long start = Metrics.start();
 		try {
 			url = new URL(mUrlBase);
 			connection = (HttpURLConnection) url.openConnection();
@@ -238,8 +260,11 @@ public enum ServerInterface {
 			writer.close();
 			
 			int responseCode = connection.getResponseCode();
-			System.out.println("\nSending 'POST' to lock database");
-			System.out.println(("\nResponse Code : " + responseCode));
+			
+			// the lock is held by another team or the request was refused
+			if (responseCode < HttpURLConnection.HTTP_OK || responseCode >= 300) {
+				return false;
+			}
 			
 			BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
 			String line;
@@ -249,13 +274,15 @@ public enum ServerInterface {
 				response.append(line);
 			}
 			in.close();
-			
-			System.out.println(response.toString());
 		}
 		catch (Exception ex) {
+			Metrics.INSTANCE.count("server.errors");
 			ex.printStackTrace();
 			return false;
 		}
+		finally {
+			Metrics.INSTANCE.stop("server.lock", start);
+		}
 		return true;
 	}
 
@@ -274,6 +301,7 @@ public enum ServerInterface {
 		URL url;
 		HttpURLConnection connection;
 		
+		long start = Metrics.start();
 		try {
 			url = new URL(mUrlBase);
 			connection = (HttpURLConnection) url.openConnection();
@@ -290,8 +318,6 @@ public enum ServerInterface {
 			writer.close();
 		    
 			int responseCode = connection.getResponseCode();
-			System.out.println("\nSending 'POST' to unlock database");
-			System.out.println(("\nResponse Code : " + responseCode));
 
 			if (responseCode >= HttpURLConnection.HTTP_OK) {
 				BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
@@ -302,18 +328,21 @@ public enum ServerInterface {
 					response.append(line);
 				}
 				in.close();
-
-				System.out.println(response.toString());
 			}
 		}
 		catch (IOException ex) {
+			Metrics.INSTANCE.count("server.errors");
 			ex.printStackTrace();
 			return false;
 		}
 		catch (Exception ex) {
+			Metrics.INSTANCE.count("server.errors");
 			ex.printStackTrace();
 			return false;
 		}
+		finally {
+			Metrics.INSTANCE.stop("server.unlock", start);
+		}
 		return true;
 	}
 
@@ -324,10 +353,53 @@ public enum ServerInterface {
 	 * @return true if the server was successfully updated
 	 */
 	public boolean reserveSeat (String teamName, String xmlFlights) {
+		return buyTickets(teamName, xmlFlights).outcome() == ReservationOutcome.RESERVED;
+	}
+
+	/**
+	 * Buy tickets using flight number and seat type, see buyTickets(String, TicketsPayload)
+	 *
+	 * @param xmlFlights is the xml containing user defined flight number and seat type
+	 */
+	public PurchaseResponse buyTickets (String teamName, String xmlFlights) {
+		return buyTickets(teamName, out -> TicketsPayload.writeFormEncoded(out, xmlFlights),
+				TicketsPayload.formEncodedLength(xmlFlights));
+	}
+
+	/**
+	 * Buy tickets using flight number and seat type. The payload is written straight to
+	 * the request body, URL-encoded as the flightData form field, with its length known
+	 * up front, so it is not buffered whole.
+	 *
+	 * @param payload holds the legs to buy
+	 */
+	public PurchaseResponse buyTickets (String teamName, TicketsPayload payload) {
+		return buyTickets(teamName, payload::writeFormEncodedTo, payload.formEncodedLength());
+	}
+
+	// writes the URL-encoded flightData of a buyTickets request body
+	private interface FlightData {
+		void writeTo(Writer out) throws IOException;
+	}
+
+	/**
+	 * Buy tickets using flight number and seat type, telling a refused purchase apart from
+	 * one whose outcome is unknown because the connection failed after the request was sent
+	 *
+	 * @param teamName
+	 * @param flightData writes the URL-encoded xml containing user defined flight number and seat type
+	 * @param flightDataBytes is the length of the URL-encoded xml
+	 * @return the outcome, RESERVED on success, REJECTED if the server refused or never got the request,
+	 *         UNKNOWN if it may or may not have applied it, with the response code if there was one
+	 */
+	private PurchaseResponse buyTickets (String teamName, FlightData flightData, long flightDataBytes) {
 
 		URL url;
 		HttpURLConnection connection;
+		boolean sent = false;
+		int responseCode = PurchaseResponse.NO_RESPONSE;
 
+		long start = Metrics.start();
 		try {
 
 			/**
@@ -337,14 +409,20 @@ public enum ServerInterface {
 			connection = (HttpURLConnection) url.openConnection();
 			connection.setRequestMethod("POST");
 			connection.setRequestProperty("User-Agent", teamName);
+			connection.setConnectTimeout(Saps.RESERVE_TIMEOUT_MS);
+			connection.setReadTimeout(Saps.RESERVE_TIMEOUT_MS);
 
 			String params = QueryFactory.reserve(teamName);
 
 			connection.setDoOutput(true);
 			connection.setDoInput(true);
 
-			DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
-			writer.writeBytes(params + xmlFlights);
+			connection.setFixedLengthStreamingMode(TicketsPayload.utf8Length(params) + flightDataBytes);
+			Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+			// the connection is open, from here on the server may get the request
+			sent = true;
+			writer.write(params);
+			flightData.writeTo(writer);
 			writer.flush();
 			writer.close();
 
@@ -352,30 +430,30 @@ public enum ServerInterface {
 			 * If response code of SUCCESS read the XML string returned
 			 * line by line to build the full return string
 			 */
-			int responseCode = connection.getResponseCode();
-			System.out.println("\nSending 'POST' to buy ticket");
-			System.out.println(("\nResponse Code : " + responseCode));
+			responseCode = connection.getResponseCode();
 
 			// check if responseCode is between 200 and 300
-			// if true, reservation is successful
-			if (responseCode >= HttpURLConnection.HTTP_OK
-				&& responseCode < 300) {
-
-				System.out.println("Reservation is successful!");
+			// if not (ie. 304, 400), the reservation failed
+			if (responseCode < HttpURLConnection.HTTP_OK || responseCode >= 300) {
+				return new PurchaseResponse(ReservationOutcome.REJECTED, responseCode);
 			}
-			// if code does not look good (ie. 304, 400), return false
-			else { System.out.println("Reservation Failed! Please check the response code."); }
 
 		}
 		catch (IOException ex) {
+			Metrics.INSTANCE.count("server.errors");
 			ex.printStackTrace();
-			return false;
+			// the server may have applied a request it got, e.g. on a read timeout
+			return new PurchaseResponse(sent ? ReservationOutcome.UNKNOWN : ReservationOutcome.REJECTED, responseCode);
 		}
 		catch (Exception ex) {
+			Metrics.INSTANCE.count("server.errors");
 			ex.printStackTrace();
-			return false;
+			return new PurchaseResponse(sent ? ReservationOutcome.UNKNOWN : ReservationOutcome.REJECTED, responseCode);
 		}
-		return true;
+		finally {
+			Metrics.INSTANCE.stop("server.reserveSeat", start);
+		}
+		return new PurchaseResponse(ReservationOutcome.RESERVED, responseCode);
 	}
 
 }
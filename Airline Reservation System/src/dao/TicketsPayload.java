@@ -0,0 +1,296 @@
+/**
+ *
+ */
+package dao;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import flight.SeatClass;
+
+/**
+ * This class holds the flightData of a buyTickets request and writes it as XML
+ * <pre>
+ *   &lt;Flights&gt;
+ *     &lt;Flight number=DDDDD seating=SEAT_TYPE/&gt;
+ *     ...
+ *   &lt;/Flights&gt;
+ * </pre>
+ * straight to a Writer, so a payload of hundreds of legs is never built up as a String.
+ * In a request body the XML is the value of a form field, so it is written URL-encoded,
+ * the same way. The size of the encoded payload is counted without encoding it.
+ */
+public class TicketsPayload {
+    private final List<String> mNumbers = new ArrayList<>();
+    private final List<SeatClass> mSeats = new ArrayList<>();
+
+    /**
+     * Add a leg to buy
+     *
+     * @param number is the flight number
+     * @param seatClass is the seating class of the seat
+     * @return this payload
+     */
+    public TicketsPayload add(String number, SeatClass seatClass) {
+        // flight numbers are digits; anything that could end the attribute early is refused
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c == '"' || c == '<' || c == '>' || c == '&') {
+                throw new IllegalArgumentException("Flight number " + number);
+            }
+        }
+        mNumbers.add(number);
+        mSeats.add(seatClass);
+        return this;
+    }
+
+    /**
+     * Get the # of legs in the payload
+     */
+    public int legs() {
+        return mNumbers.size();
+    }
+
+    /**
+     * Write the payload XML
+     *
+     * @param out is the writer, e.g. the request body
+     * @throws IOException if the writer fails
+     */
+    public void writeTo(Writer out) throws IOException {
+        out.write("<Flights>");
+        for (int i = 0; i < mNumbers.size(); i++) {
+            out.write("<Flight number=\"");
+            out.write(mNumbers.get(i));
+            out.write("\" seating=\"");
+            out.write(mSeats.get(i).xmlName());
+            out.write("\"/>");
+        }
+        out.write("</Flights>");
+    }
+
+    /**
+     * Write the payload XML URL-encoded, as the value of the flightData form field
+     *
+     * @param out is the writer, e.g. the request body
+     * @throws IOException if the writer fails
+     */
+    public void writeFormEncodedTo(Writer out) throws IOException {
+        FormEncoder encoder = new FormEncoder(out);
+        writeTo(encoder);
+        encoder.finish();
+    }
+
+    /**
+     * Write a string URL-encoded, as the value of a form field
+     */
+    public static void writeFormEncoded(Writer out, String s) throws IOException {
+        FormEncoder encoder = new FormEncoder(out);
+        encoder.write(s, 0, s.length());
+        encoder.finish();
+    }
+
+    /**
+     * Get the # of bytes of the URL-encoded payload XML, which is ASCII
+     */
+    public long formEncodedLength() {
+        Utf8Counter counter = new Utf8Counter();
+        try {
+            writeTo(counter);
+        } catch (IOException e) {
+            // cannot happen on a counter
+            throw new IllegalStateException(e);
+        }
+        return counter.encodedBytes;
+    }
+
+    /**
+     * Get the # of bytes of a string URL-encoded, which is ASCII
+     */
+    public static long formEncodedLength(String s) {
+        Utf8Counter counter = new Utf8Counter();
+        counter.write(s, 0, s.length());
+        return counter.encodedBytes;
+    }
+
+    /**
+     * Get the # of bytes of the payload XML encoded as UTF-8
+     */
+    public long utf8Length() {
+        Utf8Counter counter = new Utf8Counter();
+        try {
+            writeTo(counter);
+        } catch (IOException e) {
+            // cannot happen on a counter
+            throw new IllegalStateException(e);
+        }
+        return counter.bytes;
+    }
+
+    /**
+     * Get the # of bytes of a string encoded as UTF-8
+     */
+    public static long utf8Length(String s) {
+        Utf8Counter counter = new Utf8Counter();
+        counter.write(s, 0, s.length());
+        return counter.bytes;
+    }
+
+    /**
+     * Get the payload XML as a String
+     */
+    @Override
+    public String toString() {
+        StringWriter sw = new StringWriter(32 + 48 * mNumbers.size());
+        try {
+            writeTo(sw);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sw.toString();
+    }
+
+    // characters written as they are by application/x-www-form-urlencoded, see URLEncoder
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '.' || c == '-' || c == '*' || c == '_';
+    }
+
+    // URL-encodes the UTF-8 bytes of the characters written to it, as URLEncoder does, without buffering them
+    private static class FormEncoder extends Writer {
+        private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+        private final Writer out;
+        // a high surrogate waiting for its low surrogate
+        private char high;
+
+        FormEncoder(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                encode(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                encode(str.charAt(i));
+            }
+        }
+
+        private void encode(char c) throws IOException {
+            if (high != 0) {
+                char h = high;
+                high = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(h, c);
+                    writeByte(0xF0 | (cp >> 18));
+                    writeByte(0x80 | ((cp >> 12) & 0x3F));
+                    writeByte(0x80 | ((cp >> 6) & 0x3F));
+                    writeByte(0x80 | (cp & 0x3F));
+                    return;
+                }
+                // an unpaired surrogate is encoded as '?'
+                writeByte('?');
+            }
+            if (isUnreserved(c)) {
+                out.write(c);
+            } else if (c == ' ') {
+                out.write('+');
+            } else if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                high = c;
+            } else if (Character.isLowSurrogate(c)) {
+                writeByte('?');
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+
+        private void writeByte(int b) throws IOException {
+            out.write('%');
+            out.write(HEX[(b >> 4) & 0xF]);
+            out.write(HEX[b & 0xF]);
+        }
+
+        // encode a high surrogate left at the end
+        void finish() throws IOException {
+            if (high != 0) {
+                high = 0;
+                writeByte('?');
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            out.close();
+        }
+    }
+
+    // counts the UTF-8 bytes of the characters written to it, and the bytes of them URL-encoded
+    private static class Utf8Counter extends Writer {
+        long bytes;
+        long encodedBytes;
+        // the last char was a high surrogate, counted as the 1 byte of an unpaired one
+        boolean afterHigh;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                count(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                count(str.charAt(i));
+            }
+        }
+
+        private void count(char c) {
+            if (Character.isLowSurrogate(c) && afterHigh) {
+                // a surrogate pair is 4 bytes in all
+                bytes += 3;
+                encodedBytes += 9;
+            } else if (c < 0x80 || Character.isSurrogate(c)) {
+                // an unpaired surrogate is encoded as '?'
+                bytes += 1;
+                encodedBytes += isUnreserved(c) || c == ' ' ? 1 : 3;
+            } else if (c < 0x800) {
+                bytes += 2;
+                encodedBytes += 6;
+            } else {
+                bytes += 3;
+                encodedBytes += 9;
+            }
+            afterHigh = Character.isHighSurrogate(c);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
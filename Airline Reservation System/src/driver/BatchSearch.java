@@ -0,0 +1,208 @@
+package driver;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+import system.FlightController;
+import utils.LatencyHistogram;
+import utils.Metrics;
+import utils.Saps;
+
+/**
+ * This class runs flight searches without the console menu, e.g. to crawl fares or replay
+ * recorded searches.
+ * <p>
+ * Each input line is one search, with the fields separated by commas or spaces:
+ * <pre>
+ *   origin destination date [class] [trip type] [sort] [return date]
+ *   BOS CLE 2019_05_10 coach round-trip totalPrice 2019_05_12
+ * </pre>
+ * Class is coach or firstClass, trip type is one-way or round-trip, sort is depTime, arrTime,
+ * travelTime or totalPrice; the defaults are coach, one-way and travelTime. Blank lines and
+ * lines starting with # are skipped. Like the console search, a date covers flights leaving
+ * on that local date.
+ * <p>
+ * The searches run in parallel on one FlightController, so they share its flight cache.
+ * Each search writes one JSON line, in input order, with its itineraries or its error,
+ * see FlightSearches. The results go to stdout unless a file is given; the program messages
+ * then go to stderr, so stdout holds the results only. A summary with the throughput and
+ * search latency is printed at the end.
+ */
+public class BatchSearch {
+
+    private final FlightController controller;
+    private final int threads;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicInteger errors = new AtomicInteger();
+
+    /**
+     * @param controller is the controller shared by the searches
+     * @param threads is the # of searches run at the same time
+     */
+    public BatchSearch(FlightController controller, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads " + threads);
+        this.controller = controller;
+        this.threads = threads;
+    }
+
+    /**
+     * Run the batch search from the Driver arguments
+     *
+     * @param args are [queries file or -] [results file or -] [threads], stdin and stdout by default
+     */
+    public static void main(String[] args) throws IOException {
+        String queries = args.length > 0 ? args[0] : "-";
+        String results = args.length > 1 ? args[1] : "-";
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Saps.BATCH_SEARCH_THREADS;
+
+        PrintStream console = System.out;
+        PrintStream summary = console;
+        if (results.equals("-")) {
+            // keep stdout for the results
+            System.setOut(System.err);
+            summary = System.err;
+        }
+        InputStream in = queries.equals("-") ? System.in : new FileInputStream(queries);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                results.equals("-") ? console : new FileOutputStream(results), StandardCharsets.UTF_8));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            BatchSearch batch = new BatchSearch(new FlightController(), threads);
+            batch.run(reader, out, summary);
+        } finally {
+            out.close();
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Run every search read, writing the results as they finish, in input order
+     *
+     * @param in are the searches, one per line
+     * @param out gets one JSON line per search
+     * @param summary gets the summary at the end
+     */
+    public void run(BufferedReader in, PrintWriter out, PrintStream summary) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ars-batch-search");
+            t.setDaemon(true);
+            return t;
+        });
+        long hitsBefore = Metrics.INSTANCE.counter("flights.cache.hit");
+        long missesBefore = Metrics.INSTANCE.counter("flights.cache.miss") + Metrics.INSTANCE.counter("flights.cache.expired");
+        long start = System.nanoTime();
+        // searches in flight, oldest first; bounded so a large input is not read all at once
+        Deque<Future<String>> pending = new ArrayDeque<>();
+        int searches = 0;
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                String query = line.trim();
+                if (query.isEmpty() || query.startsWith("#")) continue;
+                int n = lineNumber;
+                pending.add(pool.submit(() -> search(n, query)));
+                searches++;
+                while (pending.size() > threads * 4) {
+                    write(pending.poll(), out);
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll(), out);
+            }
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long hits = Metrics.INSTANCE.counter("flights.cache.hit") - hitsBefore;
+        long misses = Metrics.INSTANCE.counter("flights.cache.miss") + Metrics.INSTANCE.counter("flights.cache.expired") - missesBefore;
+        summary.println(String.format("Searches: %d (%d failed) in %.2f s with %d threads, %.1f searches/s",
+                searches, errors.get(), elapsed / 1e9, threads, searches / (elapsed / 1e9)));
+        summary.println(String.format("Latency (ms): p50 %.2f  p90 %.2f  p99 %.2f  max %.2f",
+                latency.percentileNanos(50) / 1e6, latency.percentileNanos(90) / 1e6,
+                latency.percentileNanos(99) / 1e6, latency.maxNanos() / 1e6));
+        summary.println(String.format("Flight cache: %d hits, %d fetches (%.1f%% hits)",
+                hits, misses, hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses)));
+    }
+
+    private void write(Future<String> result, PrintWriter out) {
+        try {
+            out.println(result.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            // search catches everything a query can throw
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Run one search
+     *
+     * @param lineNumber is the input line of the search
+     * @param query is the search line
+     * @return the JSON line of the result
+     */
+    String search(int lineNumber, String query) {
+        long start = Metrics.start();
+        JSONObject res = new JSONObject();
+        res.put("line", lineNumber);
+        try {
+            String[] fields = query.split("[,\\s]+");
+            if (fields.length < 3) {
+                throw new IllegalArgumentException("Expected origin, destination and date");
+            }
+            String origin = FlightSearches.airport(controller, fields[0]);
+            String destination = FlightSearches.airport(controller, fields[1]);
+            String date = FlightSearches.date(fields[2]);
+            String seatClass = FlightSearches.seatClass(fields.length > 3 ? fields[3] : "coach");
+            String tripType = fields.length > 4 ? fields[4].toLowerCase() : "one-way";
+            String sort = fields.length > 5 ? fields[5] : "travelTime";
+            if (!tripType.equals("one-way") && !tripType.equals("round-trip")) {
+                throw new IllegalArgumentException("Unknown trip type " + fields[4]);
+            }
+            String returnDate = null;
+            if (tripType.equals("round-trip")) {
+                if (fields.length < 7) throw new IllegalArgumentException("Round trip without a return date");
+                returnDate = FlightSearches.returnDate(date, fields[6]);
+            }
+
+            res.put("origin", origin).put("destination", destination).put("date", date)
+                    .put("class", seatClass).put("tripType", tripType).put("sort", sort);
+            res.put("outbound", FlightSearches.toJson(
+                    FlightSearches.search(controller, origin, destination, date, seatClass, sort, false, 0), seatClass));
+            if (returnDate != null) {
+                res.put("returnDate", returnDate);
+                res.put("return", FlightSearches.toJson(
+                        FlightSearches.search(controller, destination, origin, returnDate, seatClass, sort, false, 0), seatClass));
+            }
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            res.put("error", e.getMessage() == null ? e.toString() : e.getMessage());
+        } finally {
+            latency.record(System.nanoTime() - start);
+            Metrics.INSTANCE.stop("batch.search", start);
+        }
+        return res.toString();
+    }
+}
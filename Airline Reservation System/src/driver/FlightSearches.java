@@ -0,0 +1,161 @@
+package driver;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import flight.Flight;
+import flight.SeatClass;
+import system.FlightController;
+
+/**
+ * This class holds the searches and JSON formats shared by the headless entry points,
+ * BatchSearch and SearchService.
+ * <p>
+ * An itinerary is written as
+ * <pre>
+ *   {"departure": local time, "arrival": local time, "minutes": travel time, "price": "$1,000.80",
+ *    "legs": [{"number", "from", "to", "day": GMT departure day, "departure", "arrival", "seatsLeft"}]}
+ * </pre>
+ * The number, from and day of a leg are what SearchService takes back to reserve it.
+ */
+final class FlightSearches {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy_MM_dd");
+
+    private FlightSearches() {
+    }
+
+    /**
+     * Search like the console search: the flights leaving (or arriving) on a local date,
+     * which may be the next GMT day, sorted by the sort parameter
+     *
+     * @param byArrival is true to search by arrival date instead of departure date
+     * @param radiusKm widens the airports to the airports within that distance, 0 for exact airports
+     */
+    static ArrayList<ArrayList<Flight>> search(FlightController controller, String dep, String arr, String date,
+                                               String seatClass, String sort, boolean byArrival, double radiusKm) {
+        String nextDay = LocalDate.parse(date, FORMATTER).plusDays(1).format(FORMATTER);
+        ArrayList<ArrayList<Flight>> res = searchDay(controller, dep, arr, date, date, seatClass, byArrival, radiusKm);
+        res.addAll(searchDay(controller, dep, arr, nextDay, date, seatClass, byArrival, radiusKm));
+        return controller.sortByParam(sort, res, seatClass);
+    }
+
+    private static ArrayList<ArrayList<Flight>> searchDay(FlightController controller, String dep, String arr, String day,
+                                                          String date, String seatClass, boolean byArrival, double radiusKm) {
+        if (byArrival) {
+            return radiusKm > 0
+                    ? controller.searchArrTimeFlightNearby(dep, day, arr, seatClass, date, radiusKm)
+                    : controller.searchArrTimeFlight(dep, day, arr, seatClass, date);
+        }
+        return radiusKm > 0
+                ? controller.searchDepTimeFlightNearby(dep, day, arr, seatClass, date, radiusKm)
+                : controller.searchDepTimeFlight(dep, day, arr, seatClass, date);
+    }
+
+    /**
+     * Write search results as a JSON array of itineraries
+     */
+    static JSONArray toJson(List<? extends List<Flight>> found, String seatClass) {
+        SeatClass seat = SeatClass.fromString(seatClass);
+        JSONArray res = new JSONArray();
+        for (List<Flight> itinerary : found) {
+            ArrayList<String> info = FlightController.getInfo(new ArrayList<>(itinerary), seatClass);
+            JSONArray legs = new JSONArray();
+            for (Flight f : itinerary) {
+                legs.put(new JSONObject()
+                        .put("number", f.number())
+                        .put("from", f.departureAirport())
+                        .put("to", f.arrivalAirport())
+                        .put("day", f.departureTime().format(FORMATTER))
+                        .put("departure", f.departureLocalTime().toString())
+                        .put("arrival", f.arrivalLocalTime().toString())
+                        .put("seatsLeft", f.seatsRemaining(seat)));
+            }
+            res.put(new JSONObject()
+                    .put("departure", info.get(0))
+                    .put("arrival", info.get(1))
+                    .put("minutes", Long.parseLong(info.get(2)))
+                    .put("price", info.get(3))
+                    .put("legs", legs));
+        }
+        return res;
+    }
+
+    /**
+     * Find the leg of an itinerary written by toJson
+     *
+     * @param leg has the number, from and day of the leg
+     * @return the flight, with the seat counts of the flight cache
+     * @throws IllegalArgumentException if there is no such flight
+     */
+    static Flight leg(FlightController controller, JSONObject leg) {
+        String number = leg.getString("number");
+        String from = airport(controller, leg.getString("from"));
+        String day = date(leg.getString("day"));
+        for (Flight f : controller.getFromMapOrServer(from, day, "departing")) {
+            if (f.number().equals(number)) return f;
+        }
+        throw new IllegalArgumentException("No flight " + number + " from " + from + " on " + day);
+    }
+
+    /**
+     * Check an airport code
+     *
+     * @return the code in upper case
+     * @throws IllegalArgumentException if the airport is unknown
+     */
+    static String airport(FlightController controller, String code) {
+        String upper = code.toUpperCase();
+        if (!controller.getAirportMap().containsKey(upper)) {
+            throw new IllegalArgumentException("Unknown airport " + code);
+        }
+        return upper;
+    }
+
+    /**
+     * Check a yyyy_MM_dd date
+     *
+     * @throws IllegalArgumentException if the date is not one
+     */
+    static String date(String date) {
+        try {
+            LocalDate.parse(date, FORMATTER);
+            return date;
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Date " + date + " is not yyyy_MM_dd");
+        }
+    }
+
+    /**
+     * Check the yyyy_MM_dd return date of a round trip leaving on date
+     *
+     * @throws IllegalArgumentException if it is not a date or is before date
+     */
+    static String returnDate(String date, String returnDate) {
+        date(returnDate);
+        if (LocalDate.parse(returnDate, FORMATTER).isBefore(LocalDate.parse(date, FORMATTER))) {
+            throw new IllegalArgumentException("Return date " + returnDate + " is before " + date);
+        }
+        return returnDate;
+    }
+
+    /**
+     * Check a seat class
+     *
+     * @return the seat class as the searches take it
+     * @throws IllegalArgumentException if the seat class is unknown
+     */
+    static String seatClass(String seatClass) {
+        try {
+            return SeatClass.fromString(seatClass).xmlName();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown class " + seatClass);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package driver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import flight.Flight;
+import system.FlightController;
+import system.ReservationRequest;
+import utils.Metrics;
+import utils.Saps;
+
+/**
+ * This class serves flight searches and reservations over HTTP as JSON.
+ * <pre>
+ *   GET  /search?origin=BOS&amp;destination=SEA&amp;date=2019_05_10[&amp;class=coach][&amp;sort=travelTime][&amp;by=departure|arrival][&amp;radius=km]
+ *        {"itineraries": [...]}
+ *   GET  /roundtrip?origin=BOS&amp;destination=SEA&amp;date=2019_05_10&amp;returnDate=2019_05_12[&amp;class][&amp;sort][&amp;by][&amp;radius]
+ *        {"outbound": [...], "return": [...]}
+ *   POST /reserve {"class": "coach", "itineraries": [[{"number": "1545", "from": "BOS", "day": "2019_05_10"}, ...], ...]
+ *                  [, "keys": ["key of itinerary 0", ...]]}
+ *        {"reserved": [true, ...]}
+ * </pre>
+ * Itineraries are written as in FlightSearches; a reservation takes back the number, from and
+ * day of each leg. The keys are optional idempotency keys, one per itinerary: a client that
+ * retries a reservation with the same keys, e.g. after a timeout, is never charged twice.
+ * A bad request is answered 400 with {"error": message}.
+ * <p>
+ * One FlightController serves every request, so all requests share its flight cache, seat
+ * holds and server lock. Reservations go through its reservation queue, so the bookings of
+ * concurrent users share server lock cycles. Requests are handled on a pool of
+ * Saps.SERVICE_THREADS threads; the requests past that wait in the pool queue.
+ */
+public class SearchService {
+
+    private final FlightController controller;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Start serving
+     *
+     * @param controller serves every request
+     * @param port is the port to listen on, 0 for any free port
+     * @param threads is the # of requests handled at the same time
+     * @throws IOException if the port cannot be bound
+     */
+    public SearchService(FlightController controller, int port, int threads) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("threads " + threads);
+        this.controller = controller;
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/search", exchange -> handle(exchange, "GET", "service.search", this::search));
+        server.createContext("/roundtrip", exchange -> handle(exchange, "GET", "service.roundtrip", this::roundTrip));
+        server.createContext("/reserve", exchange -> handle(exchange, "POST", "service.reserve", this::reserve));
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "ars-service"));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Run the service from the Driver arguments
+     *
+     * @param args are [port], Saps.SERVICE_PORT by default
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Saps.SERVICE_PORT;
+        SearchService service = new SearchService(new FlightController(), port, Saps.SERVICE_THREADS);
+        Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+        System.out.println("Serving flight searches on port " + service.port());
+    }
+
+    /**
+     * Get the port served
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop serving, waiting up to a second for the requests being handled
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // one endpoint: takes the query and body, returns the response
+    private interface Endpoint {
+        JSONObject handle(Map<String, String> query, String body);
+    }
+
+    private void handle(HttpExchange exchange, String method, String operation, Endpoint endpoint) throws IOException {
+        long start = Metrics.start();
+        try {
+            if (!exchange.getRequestMethod().equals(method)) {
+                respond(exchange, 405, new JSONObject().put("error", "Use " + method));
+                return;
+            }
+            String body = method.equals("POST") ? readBody(exchange.getRequestBody()) : "";
+            JSONObject res;
+            try {
+                res = endpoint.handle(parseQuery(exchange.getRequestURI().getRawQuery()), body);
+            } catch (IllegalArgumentException | JSONException e) {
+                Metrics.INSTANCE.count("service.badRequests");
+                respond(exchange, 400, new JSONObject().put("error", e.getMessage() == null ? e.toString() : e.getMessage()));
+                return;
+            }
+            respond(exchange, 200, res);
+        } catch (RuntimeException e) {
+            Metrics.INSTANCE.count("service.errors");
+            e.printStackTrace();
+            respond(exchange, 500, new JSONObject().put("error", e.toString()));
+        } finally {
+            exchange.close();
+            Metrics.INSTANCE.stop(operation, start);
+        }
+    }
+
+    private JSONObject search(Map<String, String> query, String body) {
+        String seatClass = FlightSearches.seatClass(query.getOrDefault("class", "coach"));
+        return new JSONObject().put("itineraries", FlightSearches.toJson(
+                search(query, required(query, "origin"), required(query, "destination"), required(query, "date"), seatClass),
+                seatClass));
+    }
+
+    private JSONObject roundTrip(Map<String, String> query, String body) {
+        String seatClass = FlightSearches.seatClass(query.getOrDefault("class", "coach"));
+        String origin = required(query, "origin");
+        String destination = required(query, "destination");
+        String returnDate = required(query, "returnDate");
+        return new JSONObject()
+                .put("outbound", FlightSearches.toJson(search(query, origin, destination, required(query, "date"), seatClass), seatClass))
+                .put("return", FlightSearches.toJson(search(query, destination, origin, returnDate, seatClass), seatClass));
+    }
+
+    private ArrayList<ArrayList<Flight>> search(Map<String, String> query, String origin, String destination,
+                                                String date, String seatClass) {
+        String by = query.getOrDefault("by", "departure");
+        if (!by.equals("departure") && !by.equals("arrival")) {
+            throw new IllegalArgumentException("Unknown search by " + by);
+        }
+        double radiusKm;
+        try {
+            radiusKm = Double.parseDouble(query.getOrDefault("radius", "0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Radius " + query.get("radius") + " is not a number");
+        }
+        // a wide radius makes every airport nearby and the search combines them all
+        if (!(radiusKm >= 0 && radiusKm <= Saps.SERVICE_MAX_RADIUS_KM)) {
+            throw new IllegalArgumentException("Radius " + query.get("radius") + " is not between 0 and "
+                    + Saps.SERVICE_MAX_RADIUS_KM + " km");
+        }
+        return FlightSearches.search(controller, FlightSearches.airport(controller, origin),
+                FlightSearches.airport(controller, destination), FlightSearches.date(date), seatClass,
+                query.getOrDefault("sort", "travelTime"), by.equals("arrival"), radiusKm);
+    }
+
+    private JSONObject reserve(Map<String, String> query, String body) {
+        JSONObject request = new JSONObject(body);
+        String seatClass = FlightSearches.seatClass(request.optString("class", "coach"));
+        JSONArray itineraries = request.getJSONArray("itineraries");
+        if (itineraries.length() == 0) {
+            throw new IllegalArgumentException("No itineraries");
+        }
+        JSONArray keys = request.optJSONArray("keys");
+        if (keys != null && keys.length() != itineraries.length()) {
+            throw new IllegalArgumentException(keys.length() + " keys for " + itineraries.length() + " itineraries");
+        }
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        List<List<Flight>> found = new ArrayList<>();
+        for (int i = 0; i < itineraries.length(); i++) {
+            JSONArray legs = itineraries.getJSONArray(i);
+            if (legs.length() == 0) throw new IllegalArgumentException("Itinerary " + i + " has no legs");
+            List<Flight> itinerary = new ArrayList<>();
+            for (int j = 0; j < legs.length(); j++) {
+                itinerary.add(FlightSearches.leg(controller, legs.getJSONObject(j)));
+            }
+            found.add(itinerary);
+        }
+        // every itinerary is checked before any is queued
+        for (int i = 0; i < found.size(); i++) {
+            String key = keys == null ? ReservationRequest.newKey() : keys.getString(i);
+            if (key.isEmpty()) throw new IllegalArgumentException("Key " + i + " is empty");
+            results.add(controller.reserveAsync(found.get(i), seatClass, key));
+        }
+        JSONArray reserved = new JSONArray();
+        for (CompletableFuture<Boolean> r : results) {
+            try {
+                reserved.put(r.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reserved.put(false);
+            } catch (ExecutionException e) {
+                reserved.put(false);
+            }
+        }
+        return new JSONObject().put("reserved", reserved);
+    }
+
+    private static String required(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return value;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            try {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return params;
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int code, JSONObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
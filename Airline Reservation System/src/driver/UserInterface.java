@@ -6,6 +6,8 @@ import java.util.*;
 import airport.Airport;
 import flight.*;
 import system.FlightController;
+import system.ReservationRequest;
+import utils.Metrics;
 import utils.Saps;
 
 /**
@@ -27,6 +29,7 @@ public class UserInterface {
      * @param flightNumber is the int value for reserving flights
      * @param returnFlightNumber is the int value for reserving return flights
      * @param filterType is the int value for filters
+     * @param nearbyRadius is the km value for widening airports to nearby airports, 0 for exact airports
      */
     String depAirport;
     String arrAirport;
@@ -39,6 +42,13 @@ public class UserInterface {
     int flightNumber;
     int returnFlightNumber;
     int filterType;
+    double nearbyRadius;
+    // seats held on the selected flights while the user confirms, -1 if none
+    long holdId = -1;
+    // idempotency keys of the selected itineraries, kept so reserving them again retries the same reservation
+    List<String> reservationKeys;
+    // the flight numbers and seat class the keys were made for
+    String keyedSelection;
     DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy_MM_dd");
 
     // flights are separated into res and view because when filter flight list,
@@ -75,7 +85,6 @@ public class UserInterface {
         selectedFlight = new ArrayList();
         selectedRetFlight = new ArrayList();
 
-        controller.setAirportMap();
         airportMap = controller.getAirportMap();
     }
 
@@ -96,6 +105,8 @@ public class UserInterface {
         System.out.println("11. Search Flight");
         System.out.println("12. Reserve Flight");
         System.out.println("13. Show Flight List Again");
+        System.out.println("14. Nearby Airports Radius in km (0 for exact airports): " + nearbyRadius);
+        System.out.println("15. Show Timing Metrics");
 
         // Use Scanner to read user input
         Scanner scan = new Scanner(System.in);
@@ -120,7 +131,7 @@ public class UserInterface {
         Scanner scan = new Scanner(System.in);
         String param;
 
-        if(selectMenu<11 && scan.hasNext()) {
+        if((selectMenu<11 || selectMenu==14) && scan.hasNext()) {
             param = scan.next();
             // if user type 11, 12, 13 then assign empty string
         } else {
@@ -183,10 +194,17 @@ public class UserInterface {
 
             case 5:
                 // user input for seatClass
-                seatClass = param;
-                System.out.println(seatClass);
-                System.out.println();
-                break;
+                // check if seat class does exist
+                if (isValidSeatClass(param)) {
+                    seatClass = SeatClass.fromString(param).xmlName();
+                    System.out.println(seatClass);
+                    System.out.println();
+                    break;
+                } else {
+                    System.out.println("===Please enter a valid seating class.===");
+                    System.out.println();
+                    break;
+                }
 
             case 6:
                 // user input for trip type
@@ -295,18 +313,30 @@ public class UserInterface {
                 // display a message for user to confirm flight selection before the reserve step
                 if (tripType.equalsIgnoreCase("one-way")) {
                     if (!selectedFlight.isEmpty()) {
+                        if (!holdSelection()) {
+                            System.out.println("Selected flights are sold out, please search again.");
+                            break;
+                        }
                         System.out.println("Please press 1 to book selected flights, press 0 to discard");
-                        // if confirmed, execute case 12
+                        // if confirmed, execute case 12, else release the held seats
                         if (scan.nextInt() == 1) {
                             readUserInput(12);
+                        } else {
+                            releaseSelection();
                         }
                     }
                 } else if (tripType.equalsIgnoreCase("round-trip")) {
                     if (!selectedRetFlight.isEmpty() && !selectedFlight.isEmpty()) {
+                        if (!holdSelection()) {
+                            System.out.println("Selected flights are sold out, please search again.");
+                            break;
+                        }
                         System.out.println("Please press 1 to book selected flights, press 0 to discard");
-                        // if confirmed, execute case 12
+                        // if confirmed, execute case 12, else release the held seats
                         if (scan.nextInt() == 1) {
                             readUserInput(12);
+                        } else {
+                            releaseSelection();
                         }
                     }
                 }
@@ -331,14 +361,14 @@ public class UserInterface {
                 } else {
                     // if user search by departure time
                     if (!depTime.isEmpty()) {
-                        resFlight = controller.searchDepTimeFlight(depAirport, depTime, arrAirport, seatClass, depTime);
+                        resFlight = searchDepTime(depAirport, depTime, arrAirport, seatClass, depTime);
                         String nextDay= LocalDate.parse(depTime, formatter).plusDays(1).format(formatter);
-                        resFlight.addAll(controller.searchDepTimeFlight(depAirport, nextDay, arrAirport, seatClass, depTime));
+                        resFlight.addAll(searchDepTime(depAirport, nextDay, arrAirport, seatClass, depTime));
                         // if user search by arrival time
                     } else {
-                        resFlight = controller.searchArrTimeFlight(depAirport, arrTime, arrAirport, seatClass, arrTime);
+                        resFlight = searchArrTime(depAirport, arrTime, arrAirport, seatClass, arrTime);
                         String nextDay= LocalDate.parse(arrTime, formatter).plusDays(1).format(formatter);
-                        resFlight.addAll(controller.searchArrTimeFlight(depAirport, nextDay, arrAirport, seatClass, arrTime));
+                        resFlight.addAll(searchArrTime(depAirport, nextDay, arrAirport, seatClass, arrTime));
                     }
                     // apply sorter
                     controller.sortByParam(sortParam, resFlight, seatClass);
@@ -350,14 +380,14 @@ public class UserInterface {
                 if (tripType.equalsIgnoreCase("round-trip")){
                     // if user search by departure time
                     if (!depTime.isEmpty()) {
-                        resReturnFlight = controller.searchDepTimeFlight(arrAirport, returnTime, depAirport, seatClass, returnTime);
+                        resReturnFlight = searchDepTime(arrAirport, returnTime, depAirport, seatClass, returnTime);
                         String nextDay= LocalDate.parse(returnTime, formatter).plusDays(1).format(formatter);
-                        resFlight.addAll(controller.searchDepTimeFlight(depAirport, nextDay, arrAirport, seatClass, returnTime));
+                        resFlight.addAll(searchDepTime(depAirport, nextDay, arrAirport, seatClass, returnTime));
                         // if user search by arrival time
                     } else {
-                        resReturnFlight = controller.searchArrTimeFlight(arrAirport, returnTime, depAirport, seatClass, returnTime);
+                        resReturnFlight = searchArrTime(arrAirport, returnTime, depAirport, seatClass, returnTime);
                         String nextDay= LocalDate.parse(returnTime, formatter).plusDays(1).format(formatter);
-                        resFlight.addAll(controller.searchArrTimeFlight(depAirport, nextDay, arrAirport, seatClass, returnTime));
+                        resFlight.addAll(searchArrTime(depAirport, nextDay, arrAirport, seatClass, returnTime));
                     }
                     // apply sorter
                     controller.sortByParam(sortParam, resReturnFlight, seatClass);
@@ -369,17 +399,42 @@ public class UserInterface {
                 break;
 
             case 12:
-                // reserve flight(s)
-                controller.reserveFlight(viewFlight.get(flightNumber), seatClass);
-                System.out.println("Reserved Departure Flight:");
+                // reserve flight(s), both ways of a round trip within one server lock
+                List<ArrayList<Flight>> itineraries = new ArrayList<>();
+                itineraries.add(viewFlight.get(flightNumber));
+                if(tripType.equalsIgnoreCase("round-trip")){
+                    itineraries.add(viewReturnFlight.get(returnFlightNumber));
+                }
+                // a different itinerary is a new reservation, even if it was never held
+                String selection = selectionOf(itineraries);
+                if (reservationKeys == null || !selection.equals(keyedSelection)) {
+                    reservationKeys = newReservationKeys(itineraries.size());
+                    keyedSelection = selection;
+                }
+                List<Boolean> reserved = controller.reserveFlights(itineraries, seatClass, reservationKeys);
+                // bought seats are in the seat counts now
+                releaseSelection();
                 // print out reservation summary
+                System.out.println(reserved.get(0) ? "Reserved Departure Flight:" : "Could not reserve Departure Flight:");
                 printSelectedList(selectedFlight, viewFlight, "");
                 if(tripType.equalsIgnoreCase("round-trip")){
-                    controller.reserveFlight(viewReturnFlight.get(returnFlightNumber), seatClass);
-                    // print out reservation summary
-                    System.out.println("Reserved Return Flight:");
+                    System.out.println(reserved.get(1) ? "Reserved Return Flight:" : "Could not reserve Return Flight:");
                     printSelectedList(selectedRetFlight, viewFlight, "");
                 }
+                if (reserved.contains(false)) {
+                    System.out.println("Please try again.");
+                } else {
+                    // booked, the next reservation starts from a new selection
+                    reservationKeys = null;
+                    keyedSelection = null;
+                    flightNumber = -1;
+                    returnFlightNumber = -1;
+                    selectedFlight.clear();
+                    selectedRetFlight.clear();
+                }
+                // the kept lists already show the new seat counts, drop itineraries that sold out
+                controller.recheckResults(resFlight, seatClass);
+                controller.recheckResults(resReturnFlight, seatClass);
                 resetToDefault();
                 break;
 
@@ -393,17 +448,102 @@ public class UserInterface {
                     System.out.println("===================================END========================================");
                 }
                 break;
+
+            case 14:
+                // user input for nearby airports radius
+                // check if radius is a number of 0 or more
+                if (isValidRadius(param)) {
+                    nearbyRadius = Double.parseDouble(param);
+                    System.out.println(nearbyRadius);
+                    System.out.println();
+                    break;
+                } else {
+                    System.out.println("===Please enter a radius of 0 or more km.===");
+                    System.out.println();
+                    break;
+                }
+
+            case 15:
+                // timers and counters, also available over JMX as ars:type=Metrics
+                System.out.println(Metrics.INSTANCE.dump());
+                break;
         }
         mainMenu();
     }
 
+    /**
+     * Hold seats on the selected flights while the user confirms
+     *
+     * @return true if every leg still has a seat
+     */
+    private boolean holdSelection() {
+        releaseSelection();
+        List<ArrayList<Flight>> itineraries = new ArrayList<>(selectedFlight);
+        if (tripType.equalsIgnoreCase("round-trip")) {
+            itineraries.addAll(selectedRetFlight);
+        }
+        holdId = controller.holdSeats(itineraries, seatClass);
+        // a new selection is a new reservation
+        reservationKeys = newReservationKeys(itineraries.size());
+        keyedSelection = selectionOf(itineraries);
+        return holdId >= 0;
+    }
+
+    private String selectionOf(List<ArrayList<Flight>> itineraries) {
+        StringBuilder sb = new StringBuilder(seatClass);
+        for (ArrayList<Flight> flightList : itineraries) {
+            sb.append('|');
+            for (Flight f : flightList) {
+                sb.append(' ').append(f.number());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static List<String> newReservationKeys(int count) {
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(ReservationRequest.newKey());
+        }
+        return keys;
+    }
+
+    private void releaseSelection() {
+        if (holdId >= 0) {
+            controller.releaseHold(holdId);
+            holdId = -1;
+        }
+    }
+
+    /**
+     * Search by departure date, including nearby airports if a radius is set
+     */
+    private ArrayList<ArrayList<Flight>> searchDepTime(String dep, String date, String arr, String seatClass, String userInputDate) {
+        if (nearbyRadius > 0) {
+            return controller.searchDepTimeFlightNearby(dep, date, arr, seatClass, userInputDate, nearbyRadius);
+        }
+        return controller.searchDepTimeFlight(dep, date, arr, seatClass, userInputDate);
+    }
+
+    /**
+     * Search by arrival date, including nearby airports if a radius is set
+     */
+    private ArrayList<ArrayList<Flight>> searchArrTime(String dep, String date, String arr, String seatClass, String userInputDate) {
+        if (nearbyRadius > 0) {
+            return controller.searchArrTimeFlightNearby(dep, date, arr, seatClass, userInputDate, nearbyRadius);
+        }
+        return controller.searchArrTimeFlight(dep, date, arr, seatClass, userInputDate);
+    }
+
     /**
      * Print flight searching result
      */
     public void printFlightList(ArrayList<ArrayList<Flight>> flight, ArrayList<ArrayList<Flight>> viewFlight, String departOrReturn) {
+        long start = Metrics.start();
         buildViewFlightList();
         if (flight.size() == 0) {
             System.out.println("No " + departOrReturn + " " + seatClass + " flights available.");
+            Metrics.INSTANCE.stop("ui.print", start);
             return;
         } else {
             for (int i=0; i<viewFlight.size(); i++) {
@@ -421,6 +561,7 @@ public class UserInterface {
                 System.out.println();
             }
         }
+        Metrics.INSTANCE.stop("ui.print", start);
     }
 
     /**
@@ -494,6 +635,36 @@ public class UserInterface {
         return airportMap.containsKey(param.toUpperCase());
     }
 
+    /**
+     * Check user input seating class
+     *
+     * @param param is user input seating class
+     *
+     * @return true if the seating class is Coach or FirstClass
+     */
+    public boolean isValidSeatClass(String param) {
+        for (SeatClass s : SeatClass.values()) {
+            if (s.xmlName().equalsIgnoreCase(param)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check user input nearby airports radius
+     *
+     * @param param is user input radius in km
+     *
+     * @return true if the radius is a finite number of 0 or more
+     */
+    public boolean isValidRadius(String param) {
+        try {
+            double radius = Double.parseDouble(param);
+            return radius >= 0 && !Double.isInfinite(radius);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     /**
      * Check user input departure/return dates
      *
@@ -525,5 +696,6 @@ public class UserInterface {
         this.sortParam = "travelTime";
         this.returnTime = "";
         this.filterType = 3;
+        this.nearbyRadius = 0;
     }
 }
\ No newline at end of file
@@ -4,14 +4,22 @@
 package flight;
 
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.time.LocalDateTime;
 
+import airplane.Airplane;
+
 
 /**
  * This class holds values pertaining to a single Flight. Class member attributes
  * are the same as defined by the CS509 server API and store values after conversion from
- * XML received from the server to Java primitives. Attributes are accessed via getter and
- * setter methods.
+ * XML received from the server to Java primitives. Attributes are accessed via getter
+ * methods.
+ * <p>
+ * A Flight is an immutable snapshot of the server data. Local times and seats left are
+ * computed once when the flight is loaded, so the same instance can be shared between
+ * threads and searches without copying. The seat counts are the only values that change
+ * after loading, and they are held in atomic arrays.
  */
 
 public class Flight implements Comparable<Flight>, Comparator<Flight> {
@@ -20,74 +28,54 @@ public class Flight implements Comparable<Flight>, Comparator<Flight> {
      * Flight attributes as defined by the CS509 server interface XML
      */
 
-    // Airplane type of the flight
-    private String mAirplane;
+    // Airplane of the flight, the shared instance of its model
+    private final Airplane mAirplane;
     // FlightTime in minutes
-    private int mFlightTime;
+    private final int mFlightTime;
     // Number of the flight
-    private String mNumber;
+    private final String mNumber;
     // Code for departure airport
-    private String mDepartureAirport;
+    private final String mDepartureAirport;
     // Code for arrival airport
-    private String mArrivalAirport;
+    private final String mArrivalAirport;
     /*
      * Departure and Arrival time of the flight.
      * Set to LocalDateTime.
      */
-    private LocalDateTime mDepartureTime;
-    private LocalDateTime mArrivalTime;
-    private LocalDateTime mDepartureLocalTime;
-    private LocalDateTime mArrivalLocalTime;
+    private final LocalDateTime mDepartureTime;
+    private final LocalDateTime mArrivalTime;
+    private final LocalDateTime mDepartureLocalTime;
+    private final LocalDateTime mArrivalLocalTime;
     /*
      * firstClass and coachPrice
      * Set to String for now.
      */
-    private String mFirstClassPrice;
-    private String mCoachPrice;
+    private final String mFirstClassPrice;
+    private final String mCoachPrice;
 
-    // # of reserved first class seats
-    private int mFirstClassReserved;
-    // # of reserved coach seats
-    private int mCoachReserved;
+    // # of reserved seats per seating class, indexed by SeatClass ordinal
+    private final AtomicIntegerArray mSeatsReserved;
 
-    /**
-     * Default constructor
-     * <p>
-     * Constructor without params. Requires object fields to be explicitly
-     * set using setter methods
-     *
-     * @pre None
-     * @post member attributes are initialized to invalid default values
-     */
-    public Flight() {
-        mAirplane = "";
-        mFlightTime = Integer.MAX_VALUE;
-        mNumber = "";
-        mDepartureAirport = "";
-        mArrivalAirport = "";
-        mDepartureTime = LocalDateTime.now();
-        mArrivalTime = LocalDateTime.now();
-        mFirstClassPrice = "";
-        mCoachPrice = "";
-        mFirstClassReserved = Integer.MAX_VALUE;
-        mCoachReserved = Integer.MAX_VALUE;
-    }
+    // # of seats left per seating class, indexed by SeatClass ordinal
+    private final AtomicIntegerArray mSeatsRemaining;
 
     /**
      * Initializing constructor.
      * <p>
-     * All attributes are initialized with specified input values following validation for reasonableness.
+     * All attributes are initialized with specified input values following validation for reasonableness,
+     * and the seats left per class are computed from the airplane. Local times are not known until
+     * the flight is loaded, see {@link #Flight(Flight, LocalDateTime, LocalDateTime)}.
      * @throws IllegalArgumentException if any parameter is determined invalid
-     * @pre String values are not empty; numeric values are valid
+     * @pre String values are not empty; numeric values are valid; airplane is the shared registry instance
      * @post member attributes are initialized with input parameter values
      */
-    public Flight(String airplane, int flightTime, String number, String departureAirport,
+    public Flight(Airplane airplane, int flightTime, String number, String departureAirport,
                   String arrivalAirport, LocalDateTime departureTime, LocalDateTime arrivalTime,
                   String firstClassPrice, String coachPrice,
                   int firstClassReserved, int coachReserved) {
 
-        if (!isValidString(airplane))
-            throw new IllegalArgumentException(airplane);
+        if (airplane == null)
+            throw new IllegalArgumentException("airplane");
         if (!isValidInt(flightTime))
             throw new IllegalArgumentException(Integer.toString(flightTime));
         if (!isValidString(number))
@@ -98,10 +86,10 @@ public class Flight implements Comparable<Flight>, Comparator<Flight> {
             throw new IllegalArgumentException(arrivalAirport);
         // departure time
         if (!isValidTime(departureTime))
-            throw new IllegalArgumentException(departureTime.toString());
+            throw new IllegalArgumentException(String.valueOf(departureTime));
         // arrival time
         if (!isValidTime(arrivalTime))
-            throw new IllegalArgumentException(arrivalTime.toString());
+            throw new IllegalArgumentException(String.valueOf(arrivalTime));
         if (!isValidString(firstClassPrice))
             throw new IllegalArgumentException(firstClassPrice);
         if (!isValidString(coachPrice))
@@ -119,13 +107,52 @@ public class Flight implements Comparable<Flight>, Comparator<Flight> {
         mArrivalAirport = arrivalAirport;
         mDepartureTime = departureTime;
         mArrivalTime = arrivalTime;
+        mDepartureLocalTime = null;
+        mArrivalLocalTime = null;
         mCoachPrice = coachPrice;
         mFirstClassPrice = firstClassPrice;
-        mCoachReserved = coachReserved;
-        mFirstClassReserved = firstClassReserved;
+        mSeatsReserved = new AtomicIntegerArray(SeatClass.values().length);
+        mSeatsReserved.set(SeatClass.COACH.ordinal(), coachReserved);
+        mSeatsReserved.set(SeatClass.FIRST_CLASS.ordinal(), firstClassReserved);
+        mSeatsRemaining = new AtomicIntegerArray(SeatClass.values().length);
+        for (SeatClass s : SeatClass.values()) {
+            mSeatsRemaining.set(s.ordinal(), airplane.seats(s) - mSeatsReserved.get(s.ordinal()));
+        }
 
     }
 
+    /**
+     * Loading constructor.
+     * <p>
+     * Builds the snapshot that is cached and shared by searches from a parsed flight,
+     * with the local times computed once here.
+     *
+     * @param flight is the flight parsed from the server XML
+     * @param departureLocalTime is the departure time at the departure airport
+     * @param arrivalLocalTime is the arrival time at the arrival airport
+     * @pre flight is valid
+     * @post member attributes are initialized with the parsed values and local times
+     */
+    public Flight(Flight flight, LocalDateTime departureLocalTime, LocalDateTime arrivalLocalTime) {
+        mAirplane = flight.mAirplane;
+        mFlightTime = flight.mFlightTime;
+        mNumber = flight.mNumber;
+        mDepartureAirport = flight.mDepartureAirport;
+        mArrivalAirport = flight.mArrivalAirport;
+        mDepartureTime = flight.mDepartureTime;
+        mArrivalTime = flight.mArrivalTime;
+        mDepartureLocalTime = departureLocalTime;
+        mArrivalLocalTime = arrivalLocalTime;
+        mCoachPrice = flight.mCoachPrice;
+        mFirstClassPrice = flight.mFirstClassPrice;
+        mSeatsReserved = new AtomicIntegerArray(SeatClass.values().length);
+        mSeatsRemaining = new AtomicIntegerArray(SeatClass.values().length);
+        for (SeatClass s : SeatClass.values()) {
+            mSeatsReserved.set(s.ordinal(), flight.mSeatsReserved.get(s.ordinal()));
+            mSeatsRemaining.set(s.ordinal(), flight.mSeatsRemaining.get(s.ordinal()));
+        }
+    }
+
     /**
      * Convert object to printable string of format
      * "airplane, flightTime, number, departureAirport, departureTime,
@@ -136,7 +163,7 @@ public class Flight implements Comparable<Flight>, Comparator<Flight> {
     public String toString() {
         StringBuffer sb = new StringBuffer();
 
-        sb.append(mAirplane).append(", ");
+        sb.append(mAirplane.model()).append(", ");
         sb.append(mFlightTime).append(", ");
         sb.append(mNumber).append(", ");
         sb.append(mDepartureAirport).append(", ");
@@ -144,9 +171,9 @@ public class Flight implements Comparable<Flight>, Comparator<Flight> {
         sb.append(mArrivalAirport).append(", ");
         sb.append(mArrivalTime).append(", ");
         sb.append(mCoachPrice).append(", ");
-        sb.append(mCoachReserved).append(", ");
+        sb.append(coachReserved()).append(", ");
         sb.append(mFirstClassPrice).append(", ");
-        sb.append(mFirstClassReserved);
+        sb.append(firstClassReserved());
 
         return sb.toString();
     }
@@ -157,7 +184,7 @@ public class Flight implements Comparable<Flight>, Comparator<Flight> {
     public String toLocalString() {
         StringBuffer sb = new StringBuffer();
 
-        sb.append(mAirplane).append(", ");
+        sb.append(mAirplane.model()).append(", ");
         sb.append(mFlightTime).append(", ");
         sb.append(mNumber).append(", ");
         sb.append(mDepartureAirport).append(", ");
@@ -165,213 +192,161 @@ public class Flight implements Comparable<Flight>, Comparator<Flight> {
         sb.append(mArrivalAirport).append(", ");
         sb.append(mArrivalLocalTime).append(", ");
         sb.append(mCoachPrice).append(", ");
-        sb.append(mCoachReserved).append(", ");
+        sb.append(coachReserved()).append(", ");
         sb.append(mFirstClassPrice).append(", ");
-        sb.append(mFirstClassReserved);
+        sb.append(firstClassReserved());
 
         return sb.toString();
     }
 
 
     /**
-     * Set and get the airplane info
+     * Get the airplane info
      *
-     * @param airplane The airplane of the flight
-     * @throws IllegalArgumentException if airplane is invalid
-     * @return airplane info
+     * @return airplane model
      */
-    public void airplane(String airplane) {
-        if (isValidString(airplane))
-            mAirplane = airplane;
-        else
-            throw new IllegalArgumentException(airplane);
-    }
     public String airplane() {
+        return mAirplane.model();
+    }
+
+    /**
+     * Get the airplane flying this flight
+     *
+     * @return the shared airplane instance of the model
+     */
+    public Airplane aircraft() {
         return mAirplane;
     }
 
     /**
-     * Set and get the flightTime
+     * Get the flightTime
      *
-     * @param flightTime The flightTime of the flight
-     * @throws IllegalArgumentException if flightTime is invalid
      * @return flightTime
      */
-    public void flightTime(int flightTime) {
-        if (isValidInt(flightTime))
-            mFlightTime = flightTime;
-        else
-            throw new IllegalArgumentException(Integer.toString(flightTime));
-    }
     public int flightTime() {
         return mFlightTime;
     }
 
     /**
-     * Set and get the number
+     * Get the number
      *
-     * @param number The number of the flight
-     * @throws IllegalArgumentException if number is invalid
      * @return number
      */
-    public void number(String number) {
-        if (isValidString(number))
-            mNumber = number;
-        else
-            throw new IllegalArgumentException(number);
-    }
     public String number() {
         return mNumber;
     }
 
     /**
-     * Set and get the departureAirport
+     * Get the departureAirport
      *
-     * @param departureAirport The code for departureAirport
-     * @throws IllegalArgumentException if departureAirport is invalid
      * @return departureAirport
      */
-    public void departureAirport(String departureAirport) {
-        if (isValidCode(departureAirport))
-            mDepartureAirport = departureAirport;
-        else
-            throw new IllegalArgumentException(departureAirport);
-    }
     public String departureAirport() {
         return mDepartureAirport;
     }
 
     /**
-     * Set and get the arrivalAirport
+     * Get the arrivalAirport
      *
-     * @param arrivalAirport The code for arrivalAirport
-     * @throws IllegalArgumentException if arrivalAirport is invalid
      * @return arrivalAirport
      */
-    public void arrivalAirport(String arrivalAirport) {
-        if (isValidCode(arrivalAirport))
-            mArrivalAirport = arrivalAirport;
-        else
-            throw new IllegalArgumentException(arrivalAirport);
-    }
     public String arrivalAirport() {
         return mArrivalAirport;
     }
 
     /**
-     * Set and get the departureTime
+     * Get the departureTime in GMT and at the departure airport
      *
-     * @param departureTime The departureTime of the flight
-     * @throws IllegalArgumentException if departureTime is invalid
      * @return departureTime
      */
-    public void departureTime(LocalDateTime departureTime) {
-        if (isValidTime(departureTime))
-            mDepartureTime = departureTime;
-        else
-            throw new IllegalArgumentException(departureTime.toString());
-    }
     public LocalDateTime departureTime() {
         return mDepartureTime;
     }
-    public void departureLocalTime(LocalDateTime departureTime){
-        mDepartureLocalTime = departureTime;
-    }
     public LocalDateTime departureLocalTime(){
         return mDepartureLocalTime;
     }
 
     /**
-     * Set and get the arrivalTime
+     * Get the arrivalTime in GMT and at the arrival airport
      *
-     * @param arrivalTime The arrivalTime of the flight
-     * @throws IllegalArgumentException if arrivalTime is invalid
      * @return arrivalTime
      */
-    public void arrivalTime(LocalDateTime arrivalTime) {
-        if (isValidTime(arrivalTime))
-            mArrivalTime = arrivalTime;
-        else
-            throw new IllegalArgumentException(arrivalTime.toString());
-    }
     public LocalDateTime arrivalTime() {
         return mArrivalTime;
     }
-    public void arrivalLocalTime(LocalDateTime arrivalTime){
-        mArrivalLocalTime = arrivalTime;
-    }
     public LocalDateTime arrivalLocalTime(){
         return mArrivalLocalTime;
     }
 
     /**
-     * Set and get the coachPrice
+     * Get the coachPrice
      *
-     * @param coachPrice The coachPrice of the flight
-     * @throws IllegalArgumentException if coachPrice is invalid
      * @return coachPrice
      */
-    public void coachPrice(String coachPrice) {
-        if (isValidString(coachPrice))
-            mCoachPrice = coachPrice;
-        else
-            throw new IllegalArgumentException(coachPrice);
-    }
     public String coachPrice() {
         return mCoachPrice;
     }
 
     /**
-     * Set and get the firstClassPrice
+     * Get the firstClassPrice
      *
-     * @param firstClassPrice The firstClassPrice of the flight
-     * @throws IllegalArgumentException if firstClassPrice is invalid
      * @return firstClassPrice
      */
-    public void firstClassPrice(String firstClassPrice) {
-        if (isValidString(firstClassPrice))
-            mFirstClassPrice = firstClassPrice;
-        else
-            throw new IllegalArgumentException(firstClassPrice);
-    }
     public String firstClassPrice() {
         return mFirstClassPrice;
     }
 
     /**
-     * Set and get the coachReserved
+     * Get the coachReserved
      *
-     * @param coachReserved The reserved coach seats
-     * @throws IllegalArgumentException if coachReserved is invalid
      * @return coachReserved
      */
-    public void coachReserved(Integer coachReserved) {
-        if (isValidSeats(coachReserved))
-            mCoachReserved = coachReserved;
-        else
-            throw new IllegalArgumentException(Integer.toString(coachReserved));
-    }
     public int coachReserved() {
-        return mCoachReserved;
+        return mSeatsReserved.get(SeatClass.COACH.ordinal());
     }
 
     /**
-     * Set and get the firstClassReserved
+     * Get the firstClassReserved
      *
-     * @param firstClassReserved The reserved first class seats
-     * @throws IllegalArgumentException if firstClassReserved is invalid
      * @return firstClassReserved
      */
-    public void firstClassReserved(Integer firstClassReserved) {
-        if (isValidSeats(firstClassReserved))
-            mFirstClassReserved = firstClassReserved;
-        else
-            throw new IllegalArgumentException(Integer.toString(firstClassReserved));
-    }
     public int firstClassReserved() {
-        return mFirstClassReserved;
+        return mSeatsReserved.get(SeatClass.FIRST_CLASS.ordinal());
+    }
+
+    /**
+     * Get the # of reserved seats in a seating class
+     *
+     * @param seatClass is the seating class
+     * @return # of reserved seats
+     */
+    public int seatsReserved(SeatClass seatClass) {
+        return mSeatsReserved.get(seatClass.ordinal());
+    }
+
+    /**
+     * Get the # of seats left in a seating class
+     *
+     * @param seatClass is the seating class
+     * @return # of seats left, zero or negative if sold out
+     */
+    public int seatsRemaining(SeatClass seatClass) {
+        return mSeatsRemaining.get(seatClass.ordinal());
     }
 
+    /**
+     * Record seats bought on this flight, keeping the reserved counts
+     * and the seats left of the seating class current
+     *
+     * @param seatClass is the seating class of the seats
+     * @param count is the # of seats bought
+     */
+    public void reserveSeats(SeatClass seatClass, int count) {
+        mSeatsReserved.addAndGet(seatClass.ordinal(), count);
+        mSeatsRemaining.addAndGet(seatClass.ordinal(), -count);
+    }
+
+
 
     /**
      * Compare two flights
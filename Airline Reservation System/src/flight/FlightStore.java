@@ -0,0 +1,343 @@
+/**
+ *
+ */
+package flight;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import airplane.Airplane;
+
+/**
+ * This class stores flights off the Java heap, one fixed size binary record per flight
+ * in a direct buffer. Searches read the records by index through the accessor methods,
+ * which do not create objects, and only the flights of a found itinerary are turned
+ * back into Flight objects.
+ * <p>
+ * Record layout, RECORD_SIZE bytes, native byte order:
+ * <pre>
+ *  0  number            8 bytes, ASCII, zero padded
+ *  8  departureAirport  short, index in the airport code table
+ * 10  arrivalAirport    short, index in the airport code table
+ * 12  airplane          short, index in the airplane table
+ * 16  flightTime        int, minutes
+ * 20  departureTime     int, GMT epoch minutes
+ * 24  arrivalTime       int, GMT epoch minutes
+ * 28  departureLocal    int, local epoch minutes
+ * 32  arrivalLocal      int, local epoch minutes
+ * 36  coachPrice        int, cents
+ * 40  firstClassPrice   int, cents
+ * 44  seats reserved    int per SeatClass ordinal
+ * 52  seats left        int per SeatClass ordinal
+ * </pre>
+ * Each flight number is stored once; loading it again refreshes the record in place.
+ * Writes are synchronized and publish a new View of the buffer and code tables when done;
+ * reads take the current View without locking and use absolute buffer access, so they are
+ * safe from any thread and see every write published before them.
+ */
+public class FlightStore {
+    public static final int RECORD_SIZE = 64;
+    private static final int NUMBER_LENGTH = 8;
+
+    private static final int OFF_DEP_AIRPORT = 8;
+    private static final int OFF_ARR_AIRPORT = 10;
+    private static final int OFF_AIRPLANE = 12;
+    private static final int OFF_FLIGHT_TIME = 16;
+    private static final int OFF_DEP_TIME = 20;
+    private static final int OFF_ARR_TIME = 24;
+    private static final int OFF_DEP_LOCAL = 28;
+    private static final int OFF_ARR_LOCAL = 32;
+    private static final int OFF_COACH_PRICE = 36;
+    private static final int OFF_FIRST_PRICE = 40;
+    private static final int OFF_RESERVED = 44;
+    private static final int OFF_REMAINING = 52;
+
+    // written under the store lock, published to readers through mView
+    private ByteBuffer mBuffer;
+    private int mCount;
+    private volatile View mView;
+
+    // what readers see of the store, replaced whole after every write
+    private static final class View {
+        final ByteBuffer buffer;
+        final int count;
+        final String[] airportCodes;
+        final Airplane[] airplanes;
+
+        View(ByteBuffer buffer, int count, String[] airportCodes, Airplane[] airplanes) {
+            this.buffer = buffer;
+            this.count = count;
+            this.airportCodes = airportCodes;
+            this.airplanes = airplanes;
+        }
+    }
+
+    // small on heap lookup tables
+    private final List<String> mAirportCodes = new ArrayList<>();
+    private final Map<String, Integer> mAirportIndex = new HashMap<>();
+    private final List<Airplane> mAirplanes = new ArrayList<>();
+    private final Map<String, Integer> mAirplaneIndex = new HashMap<>();
+    private final Map<String, Integer> mRecordIndex = new HashMap<>();
+
+    /**
+     * Create a store with room for the given # of flights; it grows as needed.
+     *
+     * @param initialFlights is the initial capacity in flights
+     */
+    public FlightStore(int initialFlights) {
+        mBuffer = ByteBuffer.allocateDirect(Math.max(1, initialFlights) * RECORD_SIZE).order(ByteOrder.nativeOrder());
+        mCount = 0;
+        mView = new View(mBuffer, 0, new String[0], new Airplane[0]);
+    }
+
+    /**
+     * Store a loaded flight snapshot, or refresh its record if the flight number is already stored
+     *
+     * @param flight is the flight with local times and seats left computed
+     * @return the record index of the flight
+     * @throws IllegalArgumentException if the flight number does not fit the record
+     */
+    public synchronized int add(Flight flight) {
+        if (flight.number().length() > NUMBER_LENGTH)
+            throw new IllegalArgumentException(flight.number());
+
+        Integer existing = mRecordIndex.get(flight.number());
+        int record;
+        if (existing != null) {
+            record = existing;
+        } else {
+            record = mCount;
+            ensureCapacity(record + 1);
+        }
+
+        ByteBuffer buf = mBuffer;
+        int base = record * RECORD_SIZE;
+        for (int i = 0; i < NUMBER_LENGTH; i++) {
+            buf.put(base + i, i < flight.number().length() ? (byte) flight.number().charAt(i) : 0);
+        }
+        buf.putShort(base + OFF_DEP_AIRPORT, (short) airportIndex(flight.departureAirport()));
+        buf.putShort(base + OFF_ARR_AIRPORT, (short) airportIndex(flight.arrivalAirport()));
+        buf.putShort(base + OFF_AIRPLANE, (short) airplaneIndex(flight.aircraft()));
+        buf.putInt(base + OFF_FLIGHT_TIME, flight.flightTime());
+        buf.putInt(base + OFF_DEP_TIME, toEpochMinute(flight.departureTime()));
+        buf.putInt(base + OFF_ARR_TIME, toEpochMinute(flight.arrivalTime()));
+        buf.putInt(base + OFF_DEP_LOCAL, toEpochMinute(flight.departureLocalTime()));
+        buf.putInt(base + OFF_ARR_LOCAL, toEpochMinute(flight.arrivalLocalTime()));
+        buf.putInt(base + OFF_COACH_PRICE, toCents(flight.coachPrice()));
+        buf.putInt(base + OFF_FIRST_PRICE, toCents(flight.firstClassPrice()));
+        for (SeatClass s : SeatClass.values()) {
+            buf.putInt(base + OFF_RESERVED + 4 * s.ordinal(), s == SeatClass.COACH ? flight.coachReserved() : flight.firstClassReserved());
+            buf.putInt(base + OFF_REMAINING + 4 * s.ordinal(), flight.seatsRemaining(s));
+        }
+
+        if (existing == null) {
+            mRecordIndex.put(flight.number(), record);
+            mCount = record + 1;
+        }
+        publish();
+        return record;
+    }
+
+    /**
+     * Get the index of an airport code in the code table, adding the code if needed
+     *
+     * @param code is the 3 letter airport code
+     * @return the index compared against departureAirport and arrivalAirport of the records
+     */
+    public synchronized int airportIndex(String code) {
+        Integer index = mAirportIndex.get(code);
+        if (index == null) {
+            index = mAirportCodes.size();
+            mAirportCodes.add(code);
+            mAirportIndex.put(code, index);
+            publish();
+        }
+        return index;
+    }
+
+    /**
+     * Find the index of an airport code without adding it
+     *
+     * @return the index, or -1 if no stored flight has used the code
+     */
+    public synchronized int findAirport(String code) {
+        Integer index = mAirportIndex.get(code);
+        return index == null ? -1 : index;
+    }
+
+    public String airportCode(int index) {
+        return mView.airportCodes[index];
+    }
+
+    /**
+     * Get the # of airport codes in the code table
+     */
+    public int airportCount() {
+        return mView.airportCodes.length;
+    }
+
+    /**
+     * Get the record index of a flight number
+     *
+     * @return the record index or -1 if the flight is not stored
+     */
+    public synchronized int recordOf(String number) {
+        Integer record = mRecordIndex.get(number);
+        return record == null ? -1 : record;
+    }
+
+    public int departureAirport(int record) {
+        return mView.buffer.getShort(record * RECORD_SIZE + OFF_DEP_AIRPORT);
+    }
+
+    public int arrivalAirport(int record) {
+        return mView.buffer.getShort(record * RECORD_SIZE + OFF_ARR_AIRPORT);
+    }
+
+    public int departureTime(int record) {
+        return mView.buffer.getInt(record * RECORD_SIZE + OFF_DEP_TIME);
+    }
+
+    public int arrivalTime(int record) {
+        return mView.buffer.getInt(record * RECORD_SIZE + OFF_ARR_TIME);
+    }
+
+    public int departureLocalTime(int record) {
+        return mView.buffer.getInt(record * RECORD_SIZE + OFF_DEP_LOCAL);
+    }
+
+    public int arrivalLocalTime(int record) {
+        return mView.buffer.getInt(record * RECORD_SIZE + OFF_ARR_LOCAL);
+    }
+
+    public int seatsRemaining(int record, SeatClass seatClass) {
+        return mView.buffer.getInt(record * RECORD_SIZE + OFF_REMAINING + 4 * seatClass.ordinal());
+    }
+
+    /**
+     * Record seats bought on a stored flight
+     *
+     * @param record is the record index of the flight
+     * @param seatClass is the seating class of the seats
+     * @param count is the # of seats bought
+     */
+    public synchronized void reserveSeats(int record, SeatClass seatClass, int count) {
+        ByteBuffer buf = mBuffer;
+        int reserved = record * RECORD_SIZE + OFF_RESERVED + 4 * seatClass.ordinal();
+        int remaining = record * RECORD_SIZE + OFF_REMAINING + 4 * seatClass.ordinal();
+        buf.putInt(reserved, buf.getInt(reserved) + count);
+        buf.putInt(remaining, buf.getInt(remaining) - count);
+        publish();
+    }
+
+    /**
+     * Get the flight number of a record
+     */
+    public String number(int record) {
+        ByteBuffer buf = mView.buffer;
+        int base = record * RECORD_SIZE;
+        StringBuilder number = new StringBuilder(NUMBER_LENGTH);
+        for (int i = 0; i < NUMBER_LENGTH && buf.get(base + i) != 0; i++) {
+            number.append((char) buf.get(base + i));
+        }
+        return number.toString();
+    }
+
+    /**
+     * Build the Flight object of a record
+     *
+     * @param record is the record index of the flight
+     * @return a new flight snapshot holding the record values
+     */
+    public Flight flight(int record) {
+        View view = mView;
+        ByteBuffer buf = view.buffer;
+        int base = record * RECORD_SIZE;
+        String number = number(record);
+        Airplane airplane = view.airplanes[buf.getShort(base + OFF_AIRPLANE)];
+        String depCode = view.airportCodes[buf.getShort(base + OFF_DEP_AIRPORT)];
+        String arrCode = view.airportCodes[buf.getShort(base + OFF_ARR_AIRPORT)];
+        Flight parsed = new Flight(airplane, buf.getInt(base + OFF_FLIGHT_TIME), number,
+                depCode, arrCode,
+                toTime(buf.getInt(base + OFF_DEP_TIME)), toTime(buf.getInt(base + OFF_ARR_TIME)),
+                toPrice(buf.getInt(base + OFF_FIRST_PRICE)), toPrice(buf.getInt(base + OFF_COACH_PRICE)),
+                buf.getInt(base + OFF_RESERVED + 4 * SeatClass.FIRST_CLASS.ordinal()),
+                buf.getInt(base + OFF_RESERVED + 4 * SeatClass.COACH.ordinal()));
+        return new Flight(parsed, toTime(buf.getInt(base + OFF_DEP_LOCAL)), toTime(buf.getInt(base + OFF_ARR_LOCAL)));
+    }
+
+    /**
+     * Get the # of stored flights
+     */
+    public int size() {
+        return mView.count;
+    }
+
+    /**
+     * Get the # of bytes held off the heap by the store
+     */
+    public long offHeapBytes() {
+        return mView.buffer.capacity();
+    }
+
+    /**
+     * Convert a time to minutes since the epoch
+     */
+    public static int toEpochMinute(LocalDateTime time) {
+        return (int) (time.toEpochSecond(ZoneOffset.UTC) / 60);
+    }
+
+    /**
+     * Convert minutes since the epoch to a time
+     */
+    public static LocalDateTime toTime(int epochMinute) {
+        return LocalDateTime.ofEpochSecond(epochMinute * 60L, 0, ZoneOffset.UTC);
+    }
+
+    private void ensureCapacity(int records) {
+        ByteBuffer buf = mBuffer;
+        if (records * RECORD_SIZE <= buf.capacity()) return;
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(records, 2 * (buf.capacity() / RECORD_SIZE)) * RECORD_SIZE)
+                .order(ByteOrder.nativeOrder());
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        src.limit(mCount * RECORD_SIZE);
+        grown.put(src);
+        mBuffer = grown;
+    }
+
+    // make the writes so far visible to readers, copying a code table only when it has grown
+    private void publish() {
+        View view = mView;
+        String[] codes = view.airportCodes.length == mAirportCodes.size()
+                ? view.airportCodes : mAirportCodes.toArray(new String[0]);
+        Airplane[] airplanes = view.airplanes.length == mAirplanes.size()
+                ? view.airplanes : mAirplanes.toArray(new Airplane[0]);
+        mView = new View(mBuffer, mCount, codes, airplanes);
+    }
+
+    private int airplaneIndex(Airplane airplane) {
+        Integer index = mAirplaneIndex.get(airplane.model());
+        if (index == null) {
+            index = mAirplanes.size();
+            mAirplanes.add(airplane);
+            mAirplaneIndex.put(airplane.model(), index);
+        }
+        return index;
+    }
+
+    // "$1,000.80" to 100080
+    private static int toCents(String price) {
+        return (int) Math.round(Double.valueOf(price.substring(1).replaceAll(",", "")) * 100);
+    }
+
+    private static String toPrice(int cents) {
+        return String.format("$%,.2f", cents / 100.0);
+    }
+}
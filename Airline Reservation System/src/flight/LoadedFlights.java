@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package flight;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class indexes the loaded Flight snapshots by flight number.
+ * <p>
+ * The same flight is loaded once per list it appears in, e.g. departing one airport and
+ * arriving at another, and search results keep the copies they were built from. When seats
+ * are bought, every copy still in use is updated in place, so no list has to be fetched
+ * again to stay correct. Copies are held weakly and drop out once nothing uses them.
+ */
+public class LoadedFlights {
+
+    // [flight number, loaded copies of the flight]
+    private final Map<String, Set<Flight>> mByNumber = new ConcurrentHashMap<>();
+
+    /**
+     * Add a loaded flight
+     *
+     * @param flight is the snapshot as cached and handed to searches
+     */
+    public void add(Flight flight) {
+        // added inside compute, so purge cannot drop the set between getting it and adding to it
+        mByNumber.compute(flight.number(), (n, copies) -> {
+            if (copies == null) {
+                copies = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+            }
+            copies.add(flight);
+            return copies;
+        });
+    }
+
+    /**
+     * Record seats bought on a flight in the given copy and in every loaded copy
+     *
+     * @param flight is the flight the seats were bought on
+     * @param seatClass is the seating class of the seats
+     * @param count is the # of seats bought
+     * @return the # of copies updated
+     */
+    public int reserveSeats(Flight flight, SeatClass seatClass, int count) {
+        flight.reserveSeats(seatClass, count);
+        int updated = 1;
+        Set<Flight> copies = mByNumber.get(flight.number());
+        if (copies == null) return updated;
+        synchronized (copies) {
+            for (Flight f : copies) {
+                // Flight has identity equality, so this skips only the copy given
+                if (f != flight) {
+                    f.reserveSeats(seatClass, count);
+                    updated++;
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Bring a flight and every loaded copy of it up to the reserved counts of a fresh copy
+     *
+     * @param flight is the flight as known here
+     * @param fresh is the same flight just fetched from the server
+     * @return true if any count changed
+     */
+    public boolean refresh(Flight flight, Flight fresh) {
+        boolean changed = refreshCopy(flight, fresh);
+        Set<Flight> copies = mByNumber.get(flight.number());
+        if (copies == null) return changed;
+        synchronized (copies) {
+            for (Flight f : copies) {
+                if (f != flight) {
+                    changed |= refreshCopy(f, fresh);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static boolean refreshCopy(Flight flight, Flight fresh) {
+        boolean changed = false;
+        for (SeatClass s : SeatClass.values()) {
+            int delta = fresh.seatsReserved(s) - flight.seatsReserved(s);
+            if (delta != 0) {
+                flight.reserveSeats(s, delta);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Drop flight numbers whose copies are all gone
+     */
+    public void purge() {
+        for (String number : mByNumber.keySet()) {
+            // checked and removed atomically with respect to add
+            mByNumber.computeIfPresent(number, (n, copies) -> copies.isEmpty() ? null : copies);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package flight;
+
+/**
+ * Seating classes as defined by the CS509 server interface XML.
+ * <p>
+ * The ordinal of each constant is used as the index into the per class
+ * seat tables held by a Flight, so the availability check is a single array read.
+ */
+public enum SeatClass {
+    COACH("Coach"),
+    FIRST_CLASS("FirstClass");
+
+    // Name of the seating class as used by the server XML
+    private final String mXmlName;
+
+    SeatClass(String xmlName) {
+        mXmlName = xmlName;
+    }
+
+    /**
+     * Get the seating class name as written in the server XML
+     *
+     * @return "Coach" or "FirstClass"
+     */
+    public String xmlName() {
+        return mXmlName;
+    }
+
+    /**
+     * Convert the user input seat class to the enum value
+     *
+     * @param seatClass is the string value for seat classes, case insensitive
+     * @return the matching seat class
+     * @throws IllegalArgumentException if seatClass is not a known seating class
+     */
+    public static SeatClass fromString(String seatClass) {
+        for (SeatClass s : values()) {
+            if (s.mXmlName.equalsIgnoreCase(seatClass)) {
+                return s;
+            }
+        }
+        throw new IllegalArgumentException(seatClass);
+    }
+
+    @Override
+    public String toString() {
+        return mXmlName;
+    }
+}
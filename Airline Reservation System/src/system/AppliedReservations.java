@@ -0,0 +1,75 @@
+package system;
+
+import dao.ReservationOutcome;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * This class records the idempotency keys of the reservations the server has applied,
+ * or may have applied.
+ * <p>
+ * A ReservationRequest carries a key made by the client, which the client reuses when it
+ * retries. Once the server is known to have applied a request, its key is recorded here,
+ * and a later attempt with the same key is answered from the record instead of being sent
+ * again, so a retry cannot buy twice. A request whose purchase got no answer that could be
+ * verified is recorded as UNKNOWN, and is not sent again either.
+ * Only the most recent keys are kept.
+ */
+
+public class AppliedReservations {
+
+    private final Map<String, ReservationOutcome> applied;
+
+    /**
+     * @param maxKeys is the # of most recent keys remembered
+     */
+    public AppliedReservations(int maxKeys) {
+        if (maxKeys < 1) throw new IllegalArgumentException("maxKeys " + maxKeys);
+        applied = new RecentKeys(maxKeys);
+    }
+
+    /**
+     * Get what is known of the request with this key
+     *
+     * @return RESERVED if the server applied it, UNKNOWN if it may have, null if it was never sent or was rejected
+     */
+    public synchronized ReservationOutcome outcome(String key) {
+        return applied.get(key);
+    }
+
+    /**
+     * Record that the server has applied the request with this key
+     */
+    public synchronized void markApplied(String key) {
+        applied.put(key, ReservationOutcome.RESERVED);
+    }
+
+    /**
+     * Record that the server may have applied the request with this key, unless it is known to have
+     */
+    public synchronized void markUnknown(String key) {
+        applied.putIfAbsent(key, ReservationOutcome.UNKNOWN);
+    }
+
+    public synchronized int size() {
+        return applied.size();
+    }
+
+    // keys in insertion order, dropping the eldest past maxKeys
+    private static class RecentKeys extends LinkedHashMap<String, ReservationOutcome> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxKeys;
+
+        RecentKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ReservationOutcome> eldest) {
+            return size() > maxKeys;
+        }
+    }
+}
@@ -1,44 +1,105 @@
 package system;
 
 import airplane.Airplane;
+import airplane.AirplaneRegistry;
 import airplane.Airplanes;
 import airport.Airport;
+import airport.AirportIndex;
 import airport.Airports;
+import airport.DistanceMatrix;
+import dao.PurchaseResponse;
+import dao.ReservationOutcome;
 import dao.ServerInterface;
+import dao.TicketsPayload;
 import flight.Flight;
+import flight.FlightStore;
 import flight.Flights;
+import flight.LoadedFlights;
+import flight.SeatClass;
+import utils.Metrics;
 import utils.Saps;
 import utils.TimeConverter;
 
+import java.io.File;
+import java.io.IOException;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * This class is the interface between user and server.
  * It holds logic needed to match flights using user inputs.
+ * <p>
+ * The controller holds only reference data and caches shared by every request; the state
+ * of a search is in a SearchContext of its own, so one controller serves any number of
+ * concurrent searches.
  */
 
 public class FlightController {
 
     private static final String teamName = "GompeiSquad";
-    private Map<String, Airplane> airplaneMap;
-    private Map<String, Airport> airportMap;
-    private Map<String, Flights> flightsMap;
-    private LocalDate depDate;
-    private LocalDate arrDate;
+    // reference data, replaced whole by a reload and read by searches without locking
+    private volatile Map<String, Airplane> airplaneMap;
+    private volatile Map<String, Airport> airportMap;
+    // spatial index over airportMap for nearby airport searches
+    private volatile AirportIndex airportIndex;
+    // great-circle distances between airports for detour pruning
+    private volatile DistanceMatrix distanceMatrix;
+    // [airport + date + search type, flights], shared by every search until they are Saps.FLIGHT_CACHE_TTL_SECONDS old
+    private final Map<String, CachedFlights> flightsMap = new ConcurrentHashMap<>();
+    private final long flightCacheTtlNanos = TimeUnit.SECONDS.toNanos(Saps.FLIGHT_CACHE_TTL_SECONDS);
+    // every flight loaded into flightsMap and still used, by flight number
+    private final LoadedFlights loadedFlights = new LoadedFlights();
+    // fetches the current seat counts of the legs about to be bought
+    private final LegRevalidator legRevalidator = new LegRevalidator(teamName, loadedFlights, Saps.REVALIDATION_THREADS);
+    // off heap schedule, null unless Saps.OFF_HEAP_SCHEDULE
+    private OffHeapFlightSearch offHeapSearch;
+    // group commit of reserveAsync, started on first use
+    private ReservationQueue reservationQueue;
+    // server lock leases of the reservations
+    private final LockManager lockManager = new LockManager(teamName, Saps.LOCK_LEASE_MS, Saps.LOCK_WAIT_MS,
+            Saps.LOCK_BACKOFF_MIN_MS, Saps.LOCK_BACKOFF_MAX_MS);
+    // idempotency keys of the reservations the server has applied
+    private final AppliedReservations appliedReservations = new AppliedReservations(Saps.APPLIED_KEYS_MAX);
+    // intents and outcomes of the reservations, null if not journaled
+    private ReservationJournal journal;
+    // seats held by selected itineraries, taken out of the seats left of every search
+    private final SeatHolds seatHolds = new SeatHolds(Saps.SEAT_HOLD_TTL_SECONDS * 1000);
 //    private static Airports storeAirports;
 
+    // a list of flights in flightsMap and when it was fetched
+    private static class CachedFlights {
+        final List<Flight> flights;
+        final long fetchedAt;
+
+        CachedFlights(List<Flight> flights, long fetchedAt) {
+            this.flights = flights;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
     // format the time
-    public DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy_MM_dd");
+    public final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy_MM_dd");
 
     public FlightController() {
+        // fetch airplanes and airports in parallel, airport zones resolve on first use
+        StartupPipeline startup = new StartupPipeline(teamName);
+        startup.run();
         // initiate the [model, airplane] hashmap
-        setAirplaneMap();
+        setAirplaneMap(startup.getAirplanes());
         // initiate the [code, airport] hashmap
-        setAirportMap();
-        flightsMap = new HashMap();
+        setAirportMap(startup.getAirports());
+        System.out.println(startup.timingReport());
+        openJournal();
+        if (Saps.OFF_HEAP_SCHEDULE) {
+            offHeapSearch = new OffHeapFlightSearch(teamName, new FlightStore(Saps.OFF_HEAP_INITIAL_FLIGHTS), airportMap,
+                    distanceMatrix, seatHolds);
+        }
 
     }
 
@@ -60,22 +121,77 @@ public class FlightController {
      * @return A list of list including all flight combinations
      */
     public ArrayList<ArrayList<Flight>> searchDepTimeFlight(String depAirport, String depTime, String arrAirport, String seatClass, String userInputDate) {
-        flightsMap.clear();
-        this.depDate = LocalDate.parse(userInputDate,formatter);
-        ArrayList<ArrayList<Flight>> allList = new ArrayList();
-        depTimeFlightDFS(allList, new ArrayList<Flight>(), depAirport, depTime, arrAirport, seatClass);
-        return allList;
+        long start = Metrics.start();
+        try {
+            if (offHeapSearch != null) {
+                return offHeapSearch.searchDepTimeFlight(depAirport, depTime, arrAirport, SeatClass.fromString(seatClass), userInputDate);
+            }
+            SearchContext<List<Flight>> context = new SearchContext<>(SeatClass.fromString(seatClass), LocalDate.parse(userInputDate,formatter));
+            depTimeFlightDFS(context, new ArrayList<Flight>(), depAirport, depTime, arrAirport);
+            return context.results();
+        } finally {
+            Metrics.INSTANCE.stop("search.depTime", start);
+        }
+    }
+
+    /**
+     * Search flight by departure date, widening the departure and arrival airports to the
+     * airports within radiusKm of them. All origin/destination pairs are searched together,
+     * sharing the flights fetched from the server.
+     *
+     * @param radiusKm is the largest distance from depAirport/arrAirport of an airport to include
+     * @return A list of list including all flight combinations between the nearby airports
+     */
+    public ArrayList<ArrayList<Flight>> searchDepTimeFlightNearby(String depAirport, String depTime, String arrAirport,
+                                                                 String seatClass, String userInputDate, double radiusKm) {
+        long start = Metrics.start();
+        try {
+            Set<String> origins = nearbyAirports(depAirport, radiusKm);
+            Set<String> destinations = nearbyAirports(arrAirport, radiusKm);
+            if (offHeapSearch != null) {
+                // the off heap search takes one pair at a time
+                ArrayList<ArrayList<Flight>> allList = new ArrayList<>();
+                for (String origin : origins) {
+                    for (String destination : destinations) {
+                        if (origin.equalsIgnoreCase(destination)) continue;
+                        allList.addAll(offHeapSearch.searchDepTimeFlight(origin, depTime, destination, SeatClass.fromString(seatClass), userInputDate));
+                    }
+                }
+                return allList;
+            }
+            SearchContext<List<Flight>> context = new SearchContext<>(SeatClass.fromString(seatClass), LocalDate.parse(userInputDate,formatter));
+            for (String origin : origins) {
+                Set<String> others = codeSet(destinations);
+                others.remove(origin);
+                depTimeFlightDFS(context, new ArrayList<Flight>(), origin, depTime, others);
+            }
+            return context.results();
+        } finally {
+            Metrics.INSTANCE.stop("search.depTimeNearby", start);
+        }
     }
 
     /**
      * Use DFS algorithm to implement search flight by departure date
+     *
+     * @param context is the search, which gets the itineraries found
+     */
+    public void depTimeFlightDFS(SearchContext<List<Flight>> context, ArrayList<Flight> subres,
+                                String depAirport, String depTime, String arrAirport) {
+        depTimeFlightDFS(context, subres, depAirport, depTime, codeSet(Collections.singleton(arrAirport)));
+    }
+
+    /**
+     * Use DFS algorithm to implement search flight by departure date to any of several airports
+     *
+     * @param arrAirports are the arrival airport codes, compared ignoring case
      */
-    public void depTimeFlightDFS(ArrayList<ArrayList<Flight>> res, ArrayList<Flight> subres,
-                                String depAirport, String depTime, String arrAirport, String seatClass) {
+    private void depTimeFlightDFS(SearchContext<List<Flight>> context, ArrayList<Flight> subres,
+                                  String depAirport, String depTime, Set<String> arrAirports) {
         // skip the case when subres is empty at first
         // get the last element in subres and check if reach the destination
-        if (!subres.isEmpty() && subres.get(subres.size() - 1).arrivalAirport().equalsIgnoreCase(arrAirport)) {
-            res.add(new ArrayList(subres));
+        if (!subres.isEmpty() && arrAirports.contains(subres.get(subres.size() - 1).arrivalAirport())) {
+            context.results().add(new ArrayList(subres));
             return;
         }
         // if subres length equal to max layover + 1 (the length should be 3 because the departure airport + max 2 stops)
@@ -83,7 +199,7 @@ public class FlightController {
             return;
         }
         // pass departing to server to get the list of flights departure at an airport
-        Flights resFlights = getFromMapOrServer(depAirport, depTime, "departing");
+        List<Flight> resFlights = flights(context, depAirport, depTime, "departing");
         // if there's at least 1 element in subres
         if (subres.size() >= 1) {
             // get last flight to calculate layover time
@@ -94,23 +210,28 @@ public class FlightController {
             int hr = arrTime.getHour();
             String nextDay = arrTime.plusDays(1).format(formatter);
             if (hr >= 22) {
-                Flights nextDayFlights = getFromMapOrServer(depAirport, nextDay, "departing");
+                // cached lists are shared, so merge into a new list
+                List<Flight> nextDayFlights = flights(context, depAirport, nextDay, "departing");
+                resFlights = new ArrayList<>(resFlights);
                 resFlights.addAll(nextDayFlights);
             }
         }
 
         for (Flight f : resFlights) {
-            if (isSeatAvailable(f, seatClass)) {
+            if (isSeatAvailable(f, context.seatClass())) {
                 // if there's at least 1 element in subres, check if layover time is invalid and then skip
                 if (subres.size() >= 1) {
                     if (!isValidLayover(subres.get(subres.size() - 1).arrivalTime(), f.departureTime())) continue;
                 }
                 // time validation
-                if(!isValidTime(f) || (subres.size()==0 && !f.departureLocalTime().toLocalDate().isEqual(this.depDate))) continue;
+                if(!isValidTime(f) || (subres.size()==0 && !f.departureLocalTime().toLocalDate().isEqual(context.date()))) continue;
+                // skip legs that take the itinerary too far out of the way
+                String origin = subres.isEmpty() ? f.departureAirport() : subres.get(0).departureAirport();
+                if (distanceMatrix.isDetour(origin, travelledKm(subres) + legKm(f), f.arrivalAirport(), arrAirports, Saps.MAX_DETOUR_FACTOR, Saps.DETOUR_ALLOWANCE_KM)) continue;
                 // add element (flight) if it's valid
                 subres.add(f);
                 // do recursion
-                depTimeFlightDFS(res, subres, f.arrivalAirport(), f.arrivalTime().format(formatter), arrAirport, seatClass);
+                depTimeFlightDFS(context, subres, f.arrivalAirport(), f.arrivalTime().format(formatter), arrAirports);
                 // remove the last element we add and then continue to do the iteration
                 subres.remove(subres.size()-1);
             }
@@ -128,24 +249,83 @@ public class FlightController {
      * @return An list of list including all flight combinations
      */
     public ArrayList<ArrayList<Flight>> searchArrTimeFlight(String depAirport, String arrTime, String arrAirport, String seatClass, String userInputDate) {
-        flightsMap.clear();
-        this.arrDate = LocalDate.parse(userInputDate,formatter);
-        ArrayList<ArrayList<Flight>> allList = new ArrayList();
-        arrTimeFlightDFS(allList, new ArrayList<Flight>(), depAirport, arrTime, arrAirport, seatClass);
-        // reverse list because tracing back to do arrival time
-        for (ArrayList<Flight> list:allList) {
-            Collections.reverse(list);
+        long start = Metrics.start();
+        try {
+            if (offHeapSearch != null) {
+                return offHeapSearch.searchArrTimeFlight(depAirport, arrTime, arrAirport, SeatClass.fromString(seatClass), userInputDate);
+            }
+            SearchContext<List<Flight>> context = new SearchContext<>(SeatClass.fromString(seatClass), LocalDate.parse(userInputDate,formatter));
+            arrTimeFlightDFS(context, new ArrayList<Flight>(), depAirport, arrTime, arrAirport);
+            // reverse list because tracing back to do arrival time
+            for (ArrayList<Flight> list:context.results()) {
+                Collections.reverse(list);
+            }
+            return context.results();
+        } finally {
+            Metrics.INSTANCE.stop("search.arrTime", start);
+        }
+    }
+
+    /**
+     * Search flight by arrival date, widening the departure and arrival airports to the
+     * airports within radiusKm of them. All origin/destination pairs are searched together,
+     * sharing the flights fetched from the server.
+     *
+     * @param radiusKm is the largest distance from depAirport/arrAirport of an airport to include
+     * @return A list of list including all flight combinations between the nearby airports
+     */
+    public ArrayList<ArrayList<Flight>> searchArrTimeFlightNearby(String depAirport, String arrTime, String arrAirport,
+                                                                 String seatClass, String userInputDate, double radiusKm) {
+        long start = Metrics.start();
+        try {
+            Set<String> origins = nearbyAirports(depAirport, radiusKm);
+            Set<String> destinations = nearbyAirports(arrAirport, radiusKm);
+            if (offHeapSearch != null) {
+                // the off heap search takes one pair at a time
+                ArrayList<ArrayList<Flight>> allList = new ArrayList<>();
+                for (String origin : origins) {
+                    for (String destination : destinations) {
+                        if (origin.equalsIgnoreCase(destination)) continue;
+                        allList.addAll(offHeapSearch.searchArrTimeFlight(origin, arrTime, destination, SeatClass.fromString(seatClass), userInputDate));
+                    }
+                }
+                return allList;
+            }
+            SearchContext<List<Flight>> context = new SearchContext<>(SeatClass.fromString(seatClass), LocalDate.parse(userInputDate,formatter));
+            for (String destination : destinations) {
+                Set<String> others = codeSet(origins);
+                others.remove(destination);
+                arrTimeFlightDFS(context, new ArrayList<Flight>(), others, arrTime, destination);
+            }
+            // reverse list because tracing back to do arrival time
+            for (ArrayList<Flight> list:context.results()) {
+                Collections.reverse(list);
+            }
+            return context.results();
+        } finally {
+            Metrics.INSTANCE.stop("search.arrTimeNearby", start);
         }
-        return allList;
     }
 
     /**
      * Use DFS algorithm to implement search flight by arrival date
+     *
+     * @param context is the search, which gets the itineraries found, last leg first
      */
-    public void arrTimeFlightDFS(ArrayList<ArrayList<Flight>> res, ArrayList<Flight> subres,
-                                 String depAirport, String arrTime, String arrAirport, String seatClass) {
-        if (!subres.isEmpty() && subres.get(subres.size() - 1).departureAirport().equalsIgnoreCase(depAirport)) {
-            res.add(new ArrayList(subres));
+    public void arrTimeFlightDFS(SearchContext<List<Flight>> context, ArrayList<Flight> subres,
+                                 String depAirport, String arrTime, String arrAirport) {
+        arrTimeFlightDFS(context, subres, codeSet(Collections.singleton(depAirport)), arrTime, arrAirport);
+    }
+
+    /**
+     * Use DFS algorithm to implement search flight by arrival date from any of several airports
+     *
+     * @param depAirports are the departure airport codes, compared ignoring case
+     */
+    private void arrTimeFlightDFS(SearchContext<List<Flight>> context, ArrayList<Flight> subres,
+                                  Set<String> depAirports, String arrTime, String arrAirport) {
+        if (!subres.isEmpty() && depAirports.contains(subres.get(subres.size() - 1).departureAirport())) {
+            context.results().add(new ArrayList(subres));
             return;
         }
 
@@ -153,7 +333,7 @@ public class FlightController {
             return;
         }
         // pass arriving to server to get the list of flights arriving at an airport
-        Flights resFlights = getFromMapOrServer(arrAirport, arrTime, "arriving");
+        List<Flight> resFlights = flights(context, arrAirport, arrTime, "arriving");
 
         if (subres.size() >= 1) {
             // get last flight to calculate layover time
@@ -164,43 +344,104 @@ public class FlightController {
             int hr = depTime.getHour();
             String preDay=depTime.minusDays(1).format(formatter);
             if(hr <= 2) {
-                Flights preDayFlights = getFromMapOrServer(lastFlight.departureAirport(), preDay, "arriving");
+                // cached lists are shared, so merge into a new list
+                List<Flight> preDayFlights = flights(context, lastFlight.departureAirport(), preDay, "arriving");
+                resFlights = new ArrayList<>(resFlights);
                 resFlights.addAll(preDayFlights);
             }
         }
 
         for (Flight f : resFlights) {
-            if (isSeatAvailable(f, seatClass)) {
+            if (isSeatAvailable(f, context.seatClass())) {
                 if (subres.size() >= 1) {
                     if (!isValidLayover(f.arrivalTime(), subres.get(subres.size() - 1).departureTime())) continue;
                 }
-                if(!isValidTime(f) || (subres.size()==0 && !f.arrivalLocalTime().toLocalDate().isEqual(this.arrDate))) continue;
+                if(!isValidTime(f) || (subres.size()==0 && !f.arrivalLocalTime().toLocalDate().isEqual(context.date()))) continue;
+                // tracing back, the itinerary "starts" at the final arrival airport
+                String destination = subres.isEmpty() ? f.arrivalAirport() : subres.get(0).arrivalAirport();
+                if (distanceMatrix.isDetour(destination, travelledKm(subres) + legKm(f), f.departureAirport(), depAirports, Saps.MAX_DETOUR_FACTOR, Saps.DETOUR_ALLOWANCE_KM)) continue;
                 subres.add(f);
-                arrTimeFlightDFS(res, subres, depAirport, f.departureTime().format(formatter), f.departureAirport(), seatClass);
+                arrTimeFlightDFS(context, subres, depAirports, f.departureTime().format(formatter), f.departureAirport());
                 subres.remove(subres.size()-1);
             }
         }
     }
 
     /**
-     * Storing airport, date and search type to reduce searching time
+     * Find the codes of the airports near an airport
+     *
+     * @param code is the airport code at the center
+     * @param radiusKm is the largest distance to include
+     * @return the code itself followed by the nearby airport codes, nearest first
      */
-    public Flights getFromMapOrServer(String airport, String date, String searchType) {
-        String key = airport + date + searchType;
-        Flights res = new Flights();
-        if (flightsMap.containsKey(key)) {
-            res.addAll(flightsMap.get(key));
+    public Set<String> nearbyAirports(String code, double radiusKm) {
+        Set<String> res = new LinkedHashSet<>();
+        res.add(code.toUpperCase());
+        Airport center = airportMap.get(code.toUpperCase());
+        if (center == null || radiusKm <= 0) {
             return res;
         }
+        for (Airport a : airportIndex.nearby(center, radiusKm)) {
+            res.add(a.code());
+        }
+        return res;
+    }
+
+    private double legKm(Flight f) {
+        return distanceMatrix.distanceKm(f.departureAirport(), f.arrivalAirport());
+    }
+
+    private double travelledKm(List<Flight> legs) {
+        double km = 0;
+        for (Flight f : legs) {
+            km += legKm(f);
+        }
+        return km;
+    }
+
+    // airport codes compare ignoring case, like the single airport searches
+    private static Set<String> codeSet(Collection<String> codes) {
+        Set<String> res = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        res.addAll(codes);
+        return res;
+    }
+
+    // a list of flights, taken from the shared cache once per search
+    private List<Flight> flights(SearchContext<List<Flight>> context, String airport, String date, String searchType) {
+        return context.list(airport + date + searchType, () -> getFromMapOrServer(airport, date, searchType));
+    }
+
+    /**
+     * Storing airport, date and search type to reduce searching time.
+     * The lists are shared by every search, concurrent ones included, and fetched again
+     * once they are Saps.FLIGHT_CACHE_TTL_SECONDS old.
+     *
+     * @return the cached, unmodifiable list of flights, shared between searches
+     */
+    public List<Flight> getFromMapOrServer(String airport, String date, String searchType) {
+        String key = airport + date + searchType;
+        CachedFlights cached = flightsMap.get(key);
+        if (cached != null && System.nanoTime() - cached.fetchedAt < flightCacheTtlNanos) {
+            Metrics.INSTANCE.count("flights.cache.hit");
+            return cached.flights;
+        }
+        Metrics.INSTANCE.count(cached == null ? "flights.cache.miss" : "flights.cache.expired");
+        long fetchedAt = System.nanoTime();
         Flights flights = ServerInterface.INSTANCE.getFlights(teamName, airport, date, searchType);
+        List<Flight> snapshots = new ArrayList<>(flights.size());
         for(Flight f:flights){
-            // time convert
-            f.departureLocalTime(TimeConverter.convertTimeByZoneId(f.departureTime(), airportMap.get(f.departureAirport()).getZoneId()));
-            f.arrivalLocalTime(TimeConverter.convertTimeByZoneId(f.arrivalTime(), airportMap.get(f.arrivalAirport()).getZoneId()));
+            // time convert, computed once per flight; an airport resolves its zone the first time it is used here
+            Flight snapshot = new Flight(f,
+                    TimeConverter.convertTimeByTable(f.departureTime(), airportMap.get(f.departureAirport()).getOffsetTable()),
+                    TimeConverter.convertTimeByTable(f.arrivalTime(), airportMap.get(f.arrivalAirport()).getOffsetTable()));
+            snapshots.add(snapshot);
+            loadedFlights.add(snapshot);
         }
-        flightsMap.put(key, flights);
-        res.addAll(flights);
-        return res;
+        // the server counts are current, drop holds they can no longer satisfy
+        seatHolds.reconcile(snapshots);
+        CachedFlights fresh = new CachedFlights(Collections.unmodifiableList(snapshots), fetchedAt);
+        // keep the newest list when searches fetch the same one at the same time
+        return flightsMap.merge(key, fresh, (a, b) -> a.fetchedAt - b.fetchedAt >= 0 ? a : b).flights;
     }
 
     /**
@@ -211,26 +452,60 @@ public class FlightController {
      * @return true if # of seats left is positive
      */
     public boolean isSeatAvailable(Flight flight, String seatClass) {
-        boolean ans = false;
-        int totalSeats = 0;
-        int reservedSeats = 0;
+        return isSeatAvailable(flight, SeatClass.fromString(seatClass));
+    }
 
-        // get airplane model by flight info from hashmap
-        Airplane airplane = airplaneMap.get(flight.airplane());
+    /**
+     * Check for available seats given a flight and the seat class
+     *
+     * @param flight    is the flight/leg to check
+     * @param seatClass is the seat class
+     * @return true if # of seats left, less the seats held, is positive
+     */
+    public boolean isSeatAvailable(Flight flight, SeatClass seatClass) {
+        return seatHolds.available(flight, seatClass) > 0;
+    }
 
-        if (seatClass.equalsIgnoreCase("Coach")) {
-            totalSeats = airplane.coachSeats();
-            reservedSeats = flight.coachReserved();
-        } else if (seatClass.equalsIgnoreCase("FirstClass")) {
-            totalSeats = airplane.firstClassSeats();
-            reservedSeats = flight.firstClassReserved();
-        }
+    /**
+     * Recheck search results after seats were bought, e.g. results kept for showing again.
+     * Their legs already hold the updated seat counts; itineraries with a leg that has no
+     * seat left are removed.
+     *
+     * @param results are the search results, changed in place
+     * @param seatClass is the seat class searched for
+     * @return the # of itineraries removed
+     */
+    public int recheckResults(List<? extends List<Flight>> results, String seatClass) {
+        SeatClass seat = SeatClass.fromString(seatClass);
+        int before = results.size();
+        results.removeIf(itinerary -> {
+            for (Flight f : itinerary) {
+                if (!isSeatAvailable(f, seat)) return true;
+            }
+            return false;
+        });
+        return before - results.size();
+    }
 
-        if (totalSeats - reservedSeats > 0) {
-            ans = true;
-        }
+    /**
+     * Hold one seat on every leg of the selected itineraries until they are bought,
+     * so other searches no longer offer the last seats, see SeatHolds
+     *
+     * @param itineraries are the selected itineraries, e.g. both ways of a round trip
+     * @param seatClass is the seat class of every leg
+     * @return id of the hold, or -1 if a leg has no seat left
+     */
+    public long holdSeats(List<? extends List<Flight>> itineraries, String seatClass) {
+        return seatHolds.hold(itineraries, SeatClass.fromString(seatClass));
+    }
 
-        return ans;
+    /**
+     * Release the seats of a hold, after the itineraries are bought or discarded
+     *
+     * @param holdId is the id returned by holdSeats
+     */
+    public void releaseHold(long holdId) {
+        seatHolds.release(holdId);
     }
 
     /**
@@ -259,15 +534,16 @@ public class FlightController {
 
 
     /**
-     * Find airplane by airplane model from the hashmap
+     * Load the airplane registry used to link flights to their airplane while parsing.
+     * Must run before any flights are fetched.
      */
     public void setAirplaneMap() {
-        Airplanes allPlanes = ServerInterface.INSTANCE.getAirplanes(teamName);
-        airplaneMap = new HashMap<>();
-        for (Airplane a : allPlanes) {
-            String model = a.model();
-            airplaneMap.put(model, a);
-        }
+        setAirplaneMap(ServerInterface.INSTANCE.getAirplanes(teamName));
+    }
+
+    private void setAirplaneMap(Airplanes allPlanes) {
+        AirplaneRegistry.INSTANCE.load(allPlanes);
+        airplaneMap = AirplaneRegistry.INSTANCE.airplanes();
     }
 
 
@@ -319,6 +595,7 @@ public class FlightController {
      * @return sorted results
      */
     public ArrayList<ArrayList<Flight>> sortByParam(String param, ArrayList<ArrayList<Flight>> searchResult, String seatClass) {
+        long start = Metrics.start();
         switch (param) {
             // depTime, arrTime, travelTime, totalPrice from front-end user input
             case "depTime":
@@ -333,7 +610,7 @@ public class FlightController {
                 break;
             case "totalPrice":
                 searchResult.sort(
-                        (ArrayList<Flight> l1, ArrayList<Flight> l2) -> Double.compare(Double.valueOf(getInfo(l1, seatClass).get(3)), Double.valueOf(getInfo(l2, seatClass).get(3)))
+                        (ArrayList<Flight> l1, ArrayList<Flight> l2) -> Double.compare(priceOf(getInfo(l1, seatClass).get(3)), priceOf(getInfo(l2, seatClass).get(3)))
                 );
                 break;
             // default sort by travelTime
@@ -342,73 +619,395 @@ public class FlightController {
                         (ArrayList<Flight> l1, ArrayList<Flight> l2) -> Long.valueOf(getInfo(l1, seatClass).get(2)).compareTo(Long.valueOf(getInfo(l2, seatClass).get(2)))
                 );
         }
+        Metrics.INSTANCE.stop("search.sort", start);
         return searchResult;
     }
 
-    public void reserveFlight(ArrayList<Flight> flightList, String seatClass) {
-        boolean isLocked = false;
-        boolean isReserved = false;
-        boolean isUnlocked = true;
-        String xmlFlights;
+    // the price as formatted by getInfo, e.g. "$1,000.80"
+    private static double priceOf(String formattedPrice) {
+        return Double.parseDouble(formattedPrice.substring(1).replaceAll(",", ""));
+    }
 
-        // lock server
-        isLocked = ServerInterface.INSTANCE.lock(teamName);
+    /**
+     * Reserve one seat on every leg of an itinerary
+     *
+     * @param flightList is the itinerary to reserve
+     * @param seatClass is the seat class of every leg
+     * @return true if the itinerary was reserved
+     */
+    public boolean reserveFlight(ArrayList<Flight> flightList, String seatClass) {
+        boolean isReserved = reserveFlights(Collections.singletonList(flightList), seatClass).get(0);
+        // if not, ask to try again.
+        if (!isReserved) {
+            System.out.println("Please try again.");
+        }
+        return isReserved;
+    }
 
-        // if server locked
-        // update server
-        if (isLocked) {
-            isUnlocked = false;
-            xmlFlights = getXML(flightList, seatClass);
-            isReserved = ServerInterface.INSTANCE.reserveSeat(teamName, xmlFlights);
+    /**
+     * Queue an itinerary to be reserved together with other queued itineraries,
+     * see ReservationQueue
+     *
+     * @param flightList is the itinerary to reserve
+     * @param seatClass is the seat class of every leg
+     * @return future completed with true if the itinerary was reserved
+     */
+    public CompletableFuture<Boolean> reserveAsync(List<Flight> flightList, String seatClass) {
+        return reserveAsync(flightList, seatClass, ReservationRequest.newKey());
+    }
 
-            // if reservation is successful
-            // unlock server
-            if (isReserved) {
-                isUnlocked = ServerInterface.INSTANCE.unlock(teamName);
+    /**
+     * Queue an itinerary to be reserved under the caller's idempotency key, see reserve
+     *
+     * @param key is the idempotency key; pass the same key to retry the reservation
+     * @return future completed with true if the itinerary was reserved, now or by an earlier attempt
+     */
+    public CompletableFuture<Boolean> reserveAsync(List<Flight> flightList, String seatClass, String key) {
+        SeatClass seat = SeatClass.fromString(seatClass);
+        synchronized (this) {
+            if (reservationQueue == null) {
+                reservationQueue = new ReservationQueue(this, Saps.RESERVATION_BATCH_SIZE, Saps.RESERVATION_LINGER_MS);
             }
-            // if not, also unlock, and ask to try again.
-            else {
-                isUnlocked = ServerInterface.INSTANCE.unlock(teamName);
-                System.out.println("Please try again.");
+        }
+        return reservationQueue.submit(flightList, seat, key);
+    }
+
+    /**
+     * Reserve several itineraries, e.g. both ways of a round trip, within one server lock cycle
+     *
+     * @param itineraries are the itineraries to reserve
+     * @param seatClass is the seat class of every leg
+     * @return whether each itinerary was reserved, in the order given
+     */
+    public List<Boolean> reserveFlights(List<? extends List<Flight>> itineraries, String seatClass) {
+        List<String> keys = new ArrayList<>(itineraries.size());
+        for (int i = 0; i < itineraries.size(); i++) {
+            keys.add(ReservationRequest.newKey());
+        }
+        return reserveFlights(itineraries, seatClass, keys);
+    }
+
+    /**
+     * Reserve several itineraries within one server lock cycle under the caller's idempotency keys, see reserve
+     *
+     * @param keys are the idempotency keys of the itineraries, in the same order; pass the same keys to retry
+     * @return whether each itinerary was reserved, now or by an earlier attempt, in the order given
+     */
+    public List<Boolean> reserveFlights(List<? extends List<Flight>> itineraries, String seatClass, List<String> keys) {
+        if (keys.size() != itineraries.size()) {
+            throw new IllegalArgumentException(keys.size() + " keys for " + itineraries.size() + " itineraries");
+        }
+        SeatClass seat = SeatClass.fromString(seatClass);
+        List<ReservationRequest> requests = new ArrayList<>(itineraries.size());
+        for (int i = 0; i < itineraries.size(); i++) {
+            requests.add(new ReservationRequest(itineraries.get(i), seat, keys.get(i)));
+        }
+        return reserve(requests);
+    }
+
+    /**
+     * Reserve several itineraries within one server lock cycle
+     * <p>
+     * The legs of all itineraries are bought with a single buyTickets payload. If the server
+     * rejects it, each itinerary is bought on its own while the lock is still held, to find out
+     * which ones fail; not when the outcome is unknown, since the server may have bought them all.
+     * An itinerary with a leg that is already sold out is failed without being sent.
+     * The server lock is a LockManager lease: nothing is bought once the lease is over, and the
+     * server is unlocked on every path.
+     * <p>
+     * The seat counts of the legs are fetched from the server first, before the lock is taken,
+     * see LegRevalidator. A request whose key was already applied is answered true without being sent again.
+     * When a purchase times out, the seat counts on the server tell whether it was applied,
+     * and it is sent again only if it was not. If they cannot tell, the key is recorded as
+     * UNKNOWN and the request is answered false, now and whenever it is retried with that key,
+     * without being sent again. Requests repeating a key get the answer of the first one.
+     *
+     * @param requests are the itineraries to reserve with their seat classes
+     * @return whether each itinerary was reserved, in the order given
+     */
+    public List<Boolean> reserve(List<ReservationRequest> requests) {
+        long start = Metrics.start();
+        List<Boolean> res = new ArrayList<>(Collections.nCopies(requests.size(), false));
+
+        // bring the seat counts of the legs up to date, before locking so the lock is not held while fetching
+        if (Saps.REVALIDATE_BEFORE_RESERVE) {
+            List<ReservationRequest> pending = new ArrayList<>();
+            for (ReservationRequest r : requests) {
+                if (appliedReservations.outcome(r.key()) == null) pending.add(r);
             }
+            if (!pending.isEmpty()) {
+                seatHolds.reconcile(legRevalidator.revalidate(pending));
+            }
+        }
+
+        // leave out itineraries the known seat counts cannot satisfy, counting legs shared between itineraries,
+        // retries of itineraries already bought or perhaps bought, and repeats of a key
+        List<ReservationRequest> batch = new ArrayList<>();
+        List<Integer> batchIndex = new ArrayList<>();
+        Map<String, Integer> demand = new HashMap<>();
+        // [key, index of the first request with it]
+        Map<String, Integer> firstOfKey = new HashMap<>();
+        ReservationOutcome[] outcomes = new ReservationOutcome[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            ReservationRequest r = requests.get(i);
+            ReservationOutcome known = appliedReservations.outcome(r.key());
+            if (known == ReservationOutcome.RESERVED) {
+                res.set(i, true);
+                Metrics.INSTANCE.count("reserve.deduplicated");
+            } else if (known == ReservationOutcome.UNKNOWN) {
+                // an earlier attempt may have bought it, sending it again could buy twice
+                Metrics.INSTANCE.count("reserve.inDoubt");
+                System.out.println("An earlier attempt at this reservation may have gone through, it is not sent again.");
+            } else if (firstOfKey.putIfAbsent(r.key(), i) == null && hasSeats(r, demand)) {
+                batch.add(r);
+                batchIndex.add(i);
+            }
+        }
+
+        // journal the intents before anything is sent
+        if (journal != null && !batch.isEmpty()) {
+            try {
+                journal.intents(batch).join();
+            } catch (CompletionException e) {
+                System.out.println("Unable to journal reservations: " + e.getCause());
+            }
+        }
+
+        // lock server, the lease unlocks it however the purchase ends
+        if (!batch.isEmpty()) {
+            try (LockManager.Lease lease = lockManager.acquire()) {
+                if (lease != null) {
+                    ReservationOutcome outcome = buy(batch, lease);
+                    for (int i : batchIndex) {
+                        outcomes[i] = outcome;
+                    }
+                    // only a rejected batch is bought again, an unknown one may have been bought
+                    if (outcome == ReservationOutcome.REJECTED && batch.size() > 1) {
+                        for (int k = 0; k < batch.size() && lease.isValid(); k++) {
+                            outcomes[batchIndex.get(k)] = buy(Collections.singletonList(batch.get(k)), lease);
+                        }
+                    }
+                }
+            }
+        }
 
+        // record the keys and update seats left of the reserved itineraries, in every loaded copy of their legs
+        for (int i = 0; i < requests.size(); i++) {
+            ReservationRequest r = requests.get(i);
+            if (outcomes[i] == ReservationOutcome.RESERVED) {
+                appliedReservations.markApplied(r.key());
+                res.set(i, true);
+                for (Flight f : r.flights()) {
+                    Metrics.INSTANCE.count("reserve.copiesUpdated", loadedFlights.reserveSeats(f, r.seatClass(), 1));
+                    if (offHeapSearch != null) offHeapSearch.reserveSeats(f, r.seatClass(), 1);
+                }
+            } else if (outcomes[i] == ReservationOutcome.UNKNOWN) {
+                appliedReservations.markUnknown(r.key());
+            }
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            // a repeated key gets the answer of its first request
+            Integer first = firstOfKey.get(requests.get(i).key());
+            if (first != null && first != i) {
+                res.set(i, res.get(first));
+            }
+            Metrics.INSTANCE.count(res.get(i) ? "reserve.success" : "reserve.failure");
+        }
+        loadedFlights.purge();
+        Metrics.INSTANCE.stop("reserve", start);
+        return res;
+    }
+
+    // buy the legs of the requests, sending them again while the outcome is unknown and the server has not applied them
+    private ReservationOutcome buy(List<ReservationRequest> requests, LockManager.Lease lease) {
+        TicketsPayload payload = getPayload(requests);
+        // the seats left before anything is sent, under the lock only the purchase can change them
+        Map<String, Integer> before = seatsOnServer(requests);
+        for (int attempt = 0; ; attempt++) {
+            PurchaseResponse response = ServerInterface.INSTANCE.buyTickets(teamName, payload);
+            ReservationOutcome outcome = response.outcome();
+            if (outcome == ReservationOutcome.UNKNOWN) {
+                outcome = verifyApplied(requests, before);
+                if (outcome == ReservationOutcome.UNKNOWN) {
+                    // cannot tell, sending it again could buy twice
+                    Metrics.INSTANCE.count("reserve.unknown");
+                    System.out.println("Could not find out whether the reservation went through.");
+                } else if (outcome == ReservationOutcome.REJECTED && attempt < Saps.RESERVE_RETRIES && lease.isValid()) {
+                    // the server never applied it, so it is safe to send again
+                    Metrics.INSTANCE.count("reserve.retries");
+                    continue;
+                }
+            }
+            if (journal != null) {
+                journal.outcome(requests, outcome, response.responseCode());
+            }
+            return outcome;
         }
     }
 
+    // open the reservation journal, and settle the purchases an earlier run left in doubt in the background
+    private void openJournal() {
+        if (Saps.RESERVATION_JOURNAL.isEmpty()) {
+            return;
+        }
+        try {
+            journal = new ReservationJournal(new File(Saps.RESERVATION_JOURNAL), Saps.JOURNAL_MAX_FILE_BYTES, Saps.JOURNAL_MAX_FILES);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Reservations will not be journaled.");
+            return;
+        }
+        ReservationJournal opened = journal;
+        Thread t = new Thread(() -> {
+            for (String key : opened.recover(teamName)) {
+                appliedReservations.markApplied(key);
+            }
+        }, "ars-journal-recovery");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Find out whether the server applied a purchase that got no response, by comparing the
+     * seats left on the server now with the seats left before it was sent. Both were fetched
+     * with the server locked, so only the purchase can have changed them.
+     *
+     * @param before are the seats left fetched before the purchase was sent, null if that failed
+     * @return RESERVED if every leg lost exactly the seats bought, REJECTED if none lost any, else UNKNOWN
+     */
+    private ReservationOutcome verifyApplied(List<ReservationRequest> requests, Map<String, Integer> before) {
+        Map<String, Integer> now = seatsOnServer(requests);
+        if (before == null || now == null) return ReservationOutcome.UNKNOWN;
+
+        // [flight number + seat class, seats bought]
+        Map<String, Integer> demand = new HashMap<>();
+        for (ReservationRequest r : requests) {
+            for (Flight f : r.flights()) {
+                demand.merge(f.number() + r.seatClass(), 1, Integer::sum);
+            }
+        }
+
+        int unchanged = 0;
+        int applied = 0;
+        for (Map.Entry<String, Integer> e : demand.entrySet()) {
+            Integer was = before.get(e.getKey());
+            Integer is = now.get(e.getKey());
+            if (was == null || is == null) return ReservationOutcome.UNKNOWN;
+            int taken = was - is;
+            if (taken == 0) unchanged++;
+            else if (taken == e.getValue()) applied++;
+            else return ReservationOutcome.UNKNOWN;
+        }
+        if (unchanged == demand.size()) return ReservationOutcome.REJECTED;
+        if (applied == demand.size()) return ReservationOutcome.RESERVED;
+        return ReservationOutcome.UNKNOWN;
+    }
+
+    // fetch the seats left on the server of the legs of the requests, [flight number + seat class, seats left], null if a fetch fails
+    private Map<String, Integer> seatsOnServer(List<ReservationRequest> requests) {
+        Set<String> legs = new HashSet<>();
+        Set<String> lists = new LinkedHashSet<>();
+        for (ReservationRequest r : requests) {
+            for (Flight f : r.flights()) {
+                legs.add(f.number() + r.seatClass());
+                lists.add(f.departureAirport() + " " + f.departureTime().format(formatter));
+            }
+        }
+
+        Map<String, Integer> seats = new HashMap<>();
+        for (String list : lists) {
+            String[] airportDay = list.split(" ");
+            Flights fresh = ServerInterface.INSTANCE.getFlights(teamName, airportDay[0], airportDay[1], "departing");
+            if (fresh == null) return null;
+            for (Flight g : fresh) {
+                for (SeatClass s : SeatClass.values()) {
+                    if (legs.contains(g.number() + s)) {
+                        seats.put(g.number() + s, g.seatsRemaining(s));
+                    }
+                }
+            }
+        }
+        return seats;
+    }
+
+    // check every leg still has a seat after the legs already counted in demand, and count this itinerary if so
+    private boolean hasSeats(ReservationRequest request, Map<String, Integer> demand) {
+        Map<String, Integer> own = new HashMap<>();
+        for (Flight f : request.flights()) {
+            String key = f.number() + request.seatClass();
+            int wanted = demand.getOrDefault(key, 0) + own.merge(key, 1, Integer::sum);
+            if (f.seatsRemaining(request.seatClass()) < wanted) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, Integer> e : own.entrySet()) {
+            demand.merge(e.getKey(), e.getValue(), Integer::sum);
+        }
+        return true;
+    }
+
     public String getXML(ArrayList<Flight> flightList, String seatClass) {
 
 //      <Flights>
 //          <Flight number=DDDDD seating=SEAT_TYPE/>
 //	        <Flight number=DDDDD seating=SEAT_TYPE/>
 //      </Flights>
-        String head = "<Flights>";
-        String end = "</Flights>";
-        String middle = "";
-        String SEAT_TYPE = "";
+        SeatClass seat = SeatClass.fromString(seatClass);
+        TicketsPayload payload = new TicketsPayload();
+        for(Flight f:flightList){
+            payload.add(f.number(), seat);
+        }
+        return payload.toString();
+    }
 
-        if(seatClass.equalsIgnoreCase("coach")) {
-            SEAT_TYPE = "Coach";
-        } else if (seatClass.equalsIgnoreCase("firstClass")) {
-            SEAT_TYPE = "FirstClass";
+    /**
+     * Build a single buyTickets payload with the legs of several itineraries
+     */
+    public String getXML(List<? extends List<Flight>> itineraries, String seatClass) {
+        ArrayList<Flight> legs = new ArrayList<>();
+        for (List<Flight> itinerary : itineraries) {
+            legs.addAll(itinerary);
         }
+        return getXML(legs, seatClass);
+    }
 
-        for(Flight f:flightList){
-            String number = f.number();
-            middle += "<Flight number=\"" + number + "\" seating=\"" + SEAT_TYPE + "\"/>";
+    /**
+     * Build a single buyTickets payload with the legs of several requests, each in its own seat class
+     */
+    public String getXML(List<ReservationRequest> requests) {
+        return getPayload(requests).toString();
+    }
+
+    /**
+     * Collect the legs of several requests, each in its own seat class, into one buyTickets
+     * payload, which is written to the server without building the XML as a String
+     */
+    public TicketsPayload getPayload(List<ReservationRequest> requests) {
+        TicketsPayload payload = new TicketsPayload();
+        for (ReservationRequest r : requests) {
+            for (Flight f : r.flights()) {
+                payload.add(f.number(), r.seatClass());
+            }
         }
-        String res = head + middle + end;
-        return res;
+        return payload;
     }
 
     /**
      * Find airport obj by airport code from the hashmap
      */
     public void setAirportMap() {
-        Airports allAirports = ServerInterface.INSTANCE.getAirports(teamName);
-        airportMap = new HashMap<>();
+        setAirportMap(ServerInterface.INSTANCE.getAirports(teamName));
+    }
+
+    private void setAirportMap(Airports allAirports) {
+        // build the new maps first, so a search running meanwhile never sees them half filled
+        Map<String, Airport> airports = new HashMap<>();
         for (Airport a : allAirports) {
             String code = a.code();
-            airportMap.put(code, a);
+            airports.put(code, a);
         }
+        airportIndex = new AirportIndex(airports.values());
+        distanceMatrix = new DistanceMatrix(airports.values());
+        airportMap = Collections.unmodifiableMap(airports);
     }
 }
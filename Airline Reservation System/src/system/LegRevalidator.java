@@ -0,0 +1,100 @@
+package system;
+
+import dao.ServerInterface;
+import flight.Flight;
+import flight.Flights;
+import flight.LoadedFlights;
+import utils.Metrics;
+
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * This class brings the seat counts of the legs about to be bought up to date.
+ * <p>
+ * Only the lists that hold the legs are fetched: the departing list of each leg's airport
+ * on its GMT day, each list once however many legs it holds, all at the same time. The
+ * counts of every loaded copy of the legs are then set from the server, so the seat check
+ * before the purchase sees current numbers. This runs before the server lock is taken,
+ * which keeps the lock out of the fetch time.
+ */
+
+public class LegRevalidator {
+
+    private final String teamName;
+    private final LoadedFlights loadedFlights;
+    private final ExecutorService executor;
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy_MM_dd");
+
+    /**
+     * @param teamName is the team fetching the flights
+     * @param loadedFlights are the loaded copies to update
+     * @param threads is the # of lists fetched at the same time
+     */
+    public LegRevalidator(String teamName, LoadedFlights loadedFlights, int threads) {
+        this.teamName = teamName;
+        this.loadedFlights = loadedFlights;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ars-revalidate");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Fetch the current seat counts of the legs of the requests and update the loaded copies
+     *
+     * @param requests are the reservations about to be bought
+     * @return the fresh legs found on the server; a leg whose list could not be fetched is left out
+     */
+    public List<Flight> revalidate(Collection<ReservationRequest> requests) {
+        long start = Metrics.start();
+        // [airport + GMT day, legs departing there]
+        Map<String, List<Flight>> lists = new LinkedHashMap<>();
+        for (ReservationRequest r : requests) {
+            for (Flight f : r.flights()) {
+                lists.computeIfAbsent(f.departureAirport() + " " + f.departureTime().format(formatter),
+                        k -> new ArrayList<>()).add(f);
+            }
+        }
+
+        Map<String, CompletableFuture<Flights>> fetches = new HashMap<>();
+        for (String list : lists.keySet()) {
+            String[] airportDay = list.split(" ");
+            fetches.put(list, CompletableFuture.supplyAsync(
+                    () -> ServerInterface.INSTANCE.getFlights(teamName, airportDay[0], airportDay[1], "departing"), executor));
+        }
+
+        List<Flight> fresh = new ArrayList<>();
+        for (Map.Entry<String, List<Flight>> e : lists.entrySet()) {
+            Flights flights = fetches.get(e.getKey()).exceptionally(ex -> null).join();
+            if (flights == null) continue;
+            Map<String, Flight> byNumber = new HashMap<>();
+            for (Flight g : flights) {
+                byNumber.put(g.number(), g);
+            }
+            Set<Flight> done = new HashSet<>();
+            for (Flight f : e.getValue()) {
+                Flight g = byNumber.get(f.number());
+                if (g == null || !done.add(f)) continue;
+                if (loadedFlights.refresh(f, g)) {
+                    Metrics.INSTANCE.count("reserve.revalidate.stale");
+                }
+                fresh.add(g);
+            }
+        }
+        Metrics.INSTANCE.stop("reserve.revalidate", start);
+        return fresh;
+    }
+}
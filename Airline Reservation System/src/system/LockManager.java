@@ -0,0 +1,139 @@
+package system;
+
+import dao.ServerInterface;
+import utils.Metrics;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class hands out the server lock as a lease.
+ * <p>
+ * Only one lease is out at a time in this process, since the server lock is per team and
+ * one thread's unlock would release it for another. Contention on the server is retried
+ * with jittered exponential backoff until the wait time runs out. A lease has a deadline:
+ * work under it should check isValid before each server update, and stop once the lease
+ * is over. Closing the lease always unlocks the server, so it belongs in a try-with-resources.
+ * The time waited for and holding the lock is recorded as lock.wait and lock.held.
+ */
+
+public class LockManager {
+
+    private final String teamName;
+    private final long leaseNanos;
+    private final long waitNanos;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    // one lease at a time in this process
+    private final Semaphore local = new Semaphore(1, true);
+
+    /**
+     * A held server lock, released by close
+     */
+    public final class Lease implements AutoCloseable {
+        private final long acquiredAt;
+        private final long deadline;
+        private boolean closed;
+
+        private Lease(long acquiredAt) {
+            this.acquiredAt = acquiredAt;
+            this.deadline = acquiredAt + leaseNanos;
+        }
+
+        /**
+         * Check that the lease is neither closed nor past its deadline
+         */
+        public boolean isValid() {
+            return !closed && deadline - System.nanoTime() > 0;
+        }
+
+        /**
+         * Unlock the server; does nothing if the lease is already closed
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                if (!ServerInterface.INSTANCE.unlock(teamName)) {
+                    Metrics.INSTANCE.count("lock.unlockFailures");
+                    System.out.println("Unable to unlock the server.");
+                }
+            } finally {
+                if (deadline - System.nanoTime() <= 0) {
+                    Metrics.INSTANCE.count("lock.leaseOverruns");
+                }
+                Metrics.INSTANCE.stop("lock.held", acquiredAt);
+                local.release();
+            }
+        }
+    }
+
+    /**
+     * @param teamName is the team locking the server
+     * @param leaseMillis is how long a lease may be used after it is acquired
+     * @param waitMillis is how long acquire waits for the lock
+     * @param minBackoffMillis is the first backoff after the server refuses the lock
+     * @param maxBackoffMillis is the largest backoff
+     */
+    public LockManager(String teamName, long leaseMillis, long waitMillis, long minBackoffMillis, long maxBackoffMillis) {
+        if (leaseMillis <= 0) throw new IllegalArgumentException("leaseMillis " + leaseMillis);
+        if (waitMillis < 0) throw new IllegalArgumentException("waitMillis " + waitMillis);
+        if (minBackoffMillis <= 0 || maxBackoffMillis < minBackoffMillis)
+            throw new IllegalArgumentException("backoff " + minBackoffMillis + ".." + maxBackoffMillis);
+        this.teamName = teamName;
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+        this.waitNanos = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Lock the server, retrying with backoff while it is locked by someone else
+     *
+     * @return the lease, or null if the lock could not be acquired within the wait time
+     */
+    public Lease acquire() {
+        long start = Metrics.start();
+        long waitDeadline = start + waitNanos;
+        try {
+            if (!local.tryAcquire(waitNanos, TimeUnit.NANOSECONDS)) {
+                Metrics.INSTANCE.count("lock.timeouts");
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        boolean acquired = false;
+        try {
+            long backoff = minBackoffMillis;
+            while (true) {
+                if (ServerInterface.INSTANCE.lock(teamName)) {
+                    acquired = true;
+                    return new Lease(System.nanoTime());
+                }
+                Metrics.INSTANCE.count("lock.contended");
+                // sleep between half and all of the backoff, so waiting clients do not retry in step
+                long sleep = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sleep) - waitDeadline > 0) {
+                    Metrics.INSTANCE.count("lock.timeouts");
+                    return null;
+                }
+                Thread.sleep(sleep);
+                backoff = Math.min(maxBackoffMillis, backoff * 2);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            Metrics.INSTANCE.stop("lock.wait", start);
+            if (!acquired) {
+                local.release();
+            }
+        }
+    }
+}
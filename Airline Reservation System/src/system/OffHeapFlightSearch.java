@@ -0,0 +1,295 @@
+package system;
+
+import airport.Airport;
+import airport.DistanceMatrix;
+import dao.ServerInterface;
+import flight.Flight;
+import flight.FlightStore;
+import flight.Flights;
+import flight.SeatClass;
+import utils.Metrics;
+import utils.Saps;
+import utils.TimeConverter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class runs the flight searches of FlightController against the off heap FlightStore.
+ * The DFS walks record indexes, and the seat, layover and time checks read the store
+ * directly, so no Flight objects are created until an itinerary is found.
+ * Like FlightController, it keeps the state of a search in a SearchContext, and the lists
+ * of record indexes are shared by every search.
+ */
+
+public class OffHeapFlightSearch {
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    // valid time range of flights in epoch minutes, see FlightController.isValidTime
+    private static final int MIN_TIME = FlightStore.toEpochMinute(LocalDateTime.of(Saps.DEFAULT_YEAR, Saps.DEFAULT_MONTH,
+            Saps.MIN_DATE, Saps.MIN_HOUR, Saps.MIN_MINUTE));
+    private static final int MAX_TIME = FlightStore.toEpochMinute(LocalDateTime.of(Saps.DEFAULT_YEAR, Saps.DEFAULT_MONTH,
+            Saps.MAX_DATE, Saps.MAX_HOUR, Saps.MAX_MINUTE));
+
+    private final String teamName;
+    private final FlightStore store;
+    private final Map<String, Airport> airportMap;
+    private final DistanceMatrix distanceMatrix;
+    // [store airport index, distance matrix row], grown when the store adds airports
+    private volatile int[] matrixRows = new int[0];
+    private final SeatHolds seatHolds;
+    // [airport + date + searchType, record indexes], shared by every search until they are Saps.FLIGHT_CACHE_TTL_SECONDS old
+    private final Map<String, CachedRecords> recordsMap;
+    private final long cacheTtlNanos = TimeUnit.SECONDS.toNanos(Saps.FLIGHT_CACHE_TTL_SECONDS);
+
+    // a list of record indexes in recordsMap and when it was fetched
+    private static class CachedRecords {
+        final int[] records;
+        final long fetchedAt;
+
+        CachedRecords(int[] records, long fetchedAt) {
+            this.records = records;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy_MM_dd");
+
+    public OffHeapFlightSearch(String teamName, FlightStore store, Map<String, Airport> airportMap,
+                               DistanceMatrix distanceMatrix, SeatHolds seatHolds) {
+        this.teamName = teamName;
+        this.store = store;
+        this.airportMap = airportMap;
+        this.distanceMatrix = distanceMatrix;
+        this.seatHolds = seatHolds;
+        this.recordsMap = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Search flight by departure date, see FlightController.searchDepTimeFlight
+     */
+    public ArrayList<ArrayList<Flight>> searchDepTimeFlight(String depAirport, String depTime, String arrAirport,
+                                                            SeatClass seatClass, String userInputDate) {
+        SearchContext<int[]> context = new SearchContext<>(seatClass, LocalDate.parse(userInputDate, formatter));
+        int target = airportIndex(arrAirport);
+        if (target >= 0) {
+            depTimeFlightDFS(context, new int[Saps.MAX_LAYOVER + 1], 0, depAirport.toUpperCase(), depTime, target);
+        }
+        return context.results();
+    }
+
+    private void depTimeFlightDFS(SearchContext<int[]> context, int[] subres, int size,
+                                  String depAirport, String depTime, int arrAirport) {
+        // reach the destination
+        if (size > 0 && store.arrivalAirport(subres[size - 1]) == arrAirport) {
+            context.results().add(toFlights(subres, size));
+            return;
+        }
+        if (size == Saps.MAX_LAYOVER + 1) {
+            return;
+        }
+        int[] records = records(context, depAirport, depTime, "departing");
+        if (size >= 1) {
+            // max layover time is 2hr so 22:00 to next day is still in layover time range
+            int arrTime = store.arrivalTime(subres[size - 1]);
+            if (Math.floorMod(arrTime, MINUTES_PER_DAY) / 60 >= 22) {
+                records = concat(records, records(context, depAirport, dateOf(arrTime, 1), "departing"));
+            }
+        }
+
+        for (int r : records) {
+            if (available(r, context.seatClass()) <= 0) continue;
+            if (size >= 1 && !isValidLayover(store.arrivalTime(subres[size - 1]), store.departureTime(r))) continue;
+            if (!isValidTime(r) || (size == 0 && Math.floorDiv(store.departureLocalTime(r), MINUTES_PER_DAY) != context.epochDay())) continue;
+            int origin = size == 0 ? store.departureAirport(r) : store.departureAirport(subres[0]);
+            if (isDetour(origin, travelledKm(subres, size) + legKm(r), store.arrivalAirport(r), arrAirport)) continue;
+            subres[size] = r;
+            depTimeFlightDFS(context, subres, size + 1, store.airportCode(store.arrivalAirport(r)),
+                    dateOf(store.arrivalTime(r), 0), arrAirport);
+        }
+    }
+
+    /**
+     * Search flight by arrival date, see FlightController.searchArrTimeFlight
+     */
+    public ArrayList<ArrayList<Flight>> searchArrTimeFlight(String depAirport, String arrTime, String arrAirport,
+                                                            SeatClass seatClass, String userInputDate) {
+        SearchContext<int[]> context = new SearchContext<>(seatClass, LocalDate.parse(userInputDate, formatter));
+        int target = airportIndex(depAirport);
+        if (target >= 0) {
+            arrTimeFlightDFS(context, new int[Saps.MAX_LAYOVER + 1], 0, target, arrTime, arrAirport.toUpperCase());
+        }
+        // reverse list because tracing back to do arrival time
+        for (ArrayList<Flight> list : context.results()) {
+            Collections.reverse(list);
+        }
+        return context.results();
+    }
+
+    private void arrTimeFlightDFS(SearchContext<int[]> context, int[] subres, int size,
+                                  int depAirport, String arrTime, String arrAirport) {
+        if (size > 0 && store.departureAirport(subres[size - 1]) == depAirport) {
+            context.results().add(toFlights(subres, size));
+            return;
+        }
+        if (size == Saps.MAX_LAYOVER + 1) {
+            return;
+        }
+        int[] records = records(context, arrAirport, arrTime, "arriving");
+        if (size >= 1) {
+            // max layover time is 2hr so previous day to 02:00 is still in the range
+            int depTime = store.departureTime(subres[size - 1]);
+            if (Math.floorMod(depTime, MINUTES_PER_DAY) / 60 <= 2) {
+                records = concat(records, records(context, arrAirport, dateOf(depTime, -1), "arriving"));
+            }
+        }
+
+        for (int r : records) {
+            if (available(r, context.seatClass()) <= 0) continue;
+            if (size >= 1 && !isValidLayover(store.arrivalTime(r), store.departureTime(subres[size - 1]))) continue;
+            if (!isValidTime(r) || (size == 0 && Math.floorDiv(store.arrivalLocalTime(r), MINUTES_PER_DAY) != context.epochDay())) continue;
+            // tracing back, the itinerary "starts" at the final arrival airport
+            int destination = size == 0 ? store.arrivalAirport(r) : store.arrivalAirport(subres[0]);
+            if (isDetour(destination, travelledKm(subres, size) + legKm(r), store.departureAirport(r), depAirport)) continue;
+            subres[size] = r;
+            arrTimeFlightDFS(context, subres, size + 1, depAirport, dateOf(store.departureTime(r), 0),
+                    store.airportCode(store.departureAirport(r)));
+        }
+    }
+
+    // the store index of the airport a search ends at (or starts at searching by arrival), compared ignoring case;
+    // -1 for a code the server does not know, which is not added to the store, so the search finds nothing
+    private int airportIndex(String code) {
+        String upper = code.toUpperCase();
+        int index = store.findAirport(upper);
+        if (index < 0 && airportMap.containsKey(upper)) {
+            // a known airport no stored flight has used yet
+            index = store.airportIndex(upper);
+        }
+        return index;
+    }
+
+    // a list of record indexes, taken from the shared cache once per search
+    private int[] records(SearchContext<int[]> context, String airport, String date, String searchType) {
+        return context.list(airport + date + searchType, () -> getFromMapOrServer(airport, date, searchType));
+    }
+
+    /**
+     * Load the flights of an airport and day into the store, again once they are
+     * Saps.FLIGHT_CACHE_TTL_SECONDS old
+     *
+     * @return record indexes of the flights
+     */
+    private int[] getFromMapOrServer(String airport, String date, String searchType) {
+        String key = airport + date + searchType;
+        CachedRecords cached = recordsMap.get(key);
+        if (cached != null && System.nanoTime() - cached.fetchedAt < cacheTtlNanos) {
+            Metrics.INSTANCE.count("flights.cache.hit");
+            return cached.records;
+        }
+        Metrics.INSTANCE.count(cached == null ? "flights.cache.miss" : "flights.cache.expired");
+        long fetchedAt = System.nanoTime();
+        Flights flights = ServerInterface.INSTANCE.getFlights(teamName, airport, date, searchType);
+        int[] res = new int[flights.size()];
+        List<Flight> snapshots = new ArrayList<>(flights.size());
+        for (int i = 0; i < flights.size(); i++) {
+            Flight f = flights.get(i);
+            Flight snapshot = new Flight(f,
+                    TimeConverter.convertTimeByTable(f.departureTime(), airportMap.get(f.departureAirport()).getOffsetTable()),
+                    TimeConverter.convertTimeByTable(f.arrivalTime(), airportMap.get(f.arrivalAirport()).getOffsetTable()));
+            res[i] = store.add(snapshot);
+            snapshots.add(snapshot);
+        }
+        seatHolds.reconcile(snapshots);
+        CachedRecords fresh = new CachedRecords(res, fetchedAt);
+        // keep the newest list when searches fetch the same one at the same time
+        return recordsMap.merge(key, fresh, (a, b) -> a.fetchedAt - b.fetchedAt >= 0 ? a : b).records;
+    }
+
+    /**
+     * Record seats bought on a stored flight
+     */
+    public void reserveSeats(Flight flight, SeatClass seatClass, int count) {
+        int record = store.recordOf(flight.number());
+        if (record >= 0) {
+            store.reserveSeats(record, seatClass, count);
+        }
+    }
+
+    // # of seats left of a record less the seats held
+    private int available(int record, SeatClass seatClass) {
+        int left = store.seatsRemaining(record, seatClass);
+        return seatHolds.isEmpty() ? left : left - seatHolds.held(store.number(record), seatClass);
+    }
+
+    private boolean isDetour(int origin, double travelledKm, int current, int target) {
+        return distanceMatrix.isDetour(matrixRow(origin), travelledKm, matrixRow(current), matrixRow(target),
+                Saps.MAX_DETOUR_FACTOR, Saps.DETOUR_ALLOWANCE_KM);
+    }
+
+    private double legKm(int record) {
+        return distanceMatrix.distanceKm(matrixRow(store.departureAirport(record)), matrixRow(store.arrivalAirport(record)));
+    }
+
+    // the distance matrix row of a store airport index, -1 if the matrix does not know the airport
+    private int matrixRow(int airport) {
+        int[] rows = matrixRows;
+        return airport < rows.length ? rows[airport] : growMatrixRows(airport);
+    }
+
+    private synchronized int growMatrixRows(int airport) {
+        int[] rows = matrixRows;
+        if (airport >= rows.length) {
+            int from = rows.length;
+            rows = Arrays.copyOf(rows, Math.max(airport + 1, store.airportCount()));
+            for (int i = from; i < rows.length; i++) {
+                rows[i] = distanceMatrix.indexOf(store.airportCode(i));
+            }
+            matrixRows = rows;
+        }
+        return rows[airport];
+    }
+
+    private double travelledKm(int[] subres, int size) {
+        double km = 0;
+        for (int i = 0; i < size; i++) {
+            km += legKm(subres[i]);
+        }
+        return km;
+    }
+
+    private boolean isValidLayover(int tArr, int tDep) {
+        int layOver = tDep - tArr;
+        return layOver >= Saps.MIN_LAYOVER_TIME && layOver <= Saps.MAX_LAYOVER_TIME;
+    }
+
+    private boolean isValidTime(int record) {
+        int dep = store.departureTime(record);
+        int arr = store.arrivalTime(record);
+        return dep > MIN_TIME && dep < MAX_TIME && arr > MIN_TIME && arr < MAX_TIME;
+    }
+
+    private String dateOf(int epochMinute, int plusDays) {
+        return LocalDate.ofEpochDay(Math.floorDiv(epochMinute, MINUTES_PER_DAY) + plusDays).format(formatter);
+    }
+
+    private ArrayList<Flight> toFlights(int[] subres, int size) {
+        ArrayList<Flight> flights = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            flights.add(store.flight(subres[i]));
+        }
+        return flights;
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] res = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, res, a.length, b.length);
+        return res;
+    }
+}
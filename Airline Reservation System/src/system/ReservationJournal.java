@@ -0,0 +1,322 @@
+package system;
+
+import dao.ReservationOutcome;
+import dao.ServerInterface;
+import flight.Flight;
+import flight.Flights;
+import flight.SeatClass;
+import utils.Metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/**
+ * This class is an append-only journal of reservations.
+ * <p>
+ * The intent of each reservation is written and forced to disk before it is sent to the
+ * server, and its outcome with the server response code after. Appends from every thread
+ * go to one writer thread, which writes whatever is waiting and forces it with a single
+ * fsync, so a burst of bookings shares one disk flush instead of queueing behind one each.
+ * Each run starts a new file, files are rotated at a size limit, and the oldest are deleted.
+ * <p>
+ * Records are tab separated, one per line:
+ * <pre>
+ *   I  epoch ms  key  seat class  number/airport/GMT day/seats left,...
+ *   O  epoch ms  key  outcome  response code
+ *   R  epoch ms  key  outcome
+ * </pre>
+ * The seats left of an intent are the counts known just before the purchase. recover uses
+ * them to settle purchases that were in doubt when the program stopped.
+ */
+
+public class ReservationJournal {
+
+    private static final String PREFIX = "reservations-";
+    private static final String SUFFIX = ".journal";
+
+    private final File dir;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy_MM_dd");
+    // files from earlier runs, by index, read by recover
+    private final TreeMap<Integer, File> earlier = new TreeMap<>();
+    // the current file, used by the writer thread only
+    private FileOutputStream out;
+    private int fileIndex;
+    private long fileBytes;
+
+    // records waiting for the writer, and the future completed once they are on disk
+    private static class Append {
+        final String text;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Append(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * Open a new journal file after the files of earlier runs and start the writer thread
+     *
+     * @param dir is the journal directory, created if needed
+     * @param maxFileBytes is the size at which the file is rotated
+     * @param maxFiles is the # of files kept
+     * @throws IOException if the journal file cannot be created
+     */
+    public ReservationJournal(File dir, long maxFileBytes, int maxFiles) throws IOException {
+        if (maxFileBytes <= 0) throw new IllegalArgumentException("maxFileBytes " + maxFileBytes);
+        if (maxFiles < 1) throw new IllegalArgumentException("maxFiles " + maxFiles);
+        this.dir = dir;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + dir);
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                int index = indexOf(f);
+                if (index >= 0) earlier.put(index, f);
+            }
+        }
+        fileIndex = earlier.isEmpty() ? 0 : earlier.lastKey() + 1;
+        out = new FileOutputStream(fileOf(fileIndex), true);
+
+        Thread writer = new Thread(this::run, "ars-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Journal the intents of reservations about to be sent
+     *
+     * @return future completed once the intents are on disk
+     */
+    public CompletableFuture<Void> intents(List<ReservationRequest> requests) {
+        StringBuilder sb = new StringBuilder();
+        long now = System.currentTimeMillis();
+        for (ReservationRequest r : requests) {
+            sb.append("I\t").append(now).append('\t').append(r.key()).append('\t').append(r.seatClass().name()).append('\t');
+            for (int i = 0; i < r.flights().size(); i++) {
+                Flight f = r.flights().get(i);
+                if (i > 0) sb.append(',');
+                sb.append(f.number()).append('/').append(f.departureAirport()).append('/')
+                        .append(f.departureTime().format(formatter)).append('/').append(f.seatsRemaining(r.seatClass()));
+            }
+            sb.append('\n');
+        }
+        return append(sb.toString());
+    }
+
+    /**
+     * Journal the outcome of sent reservations
+     *
+     * @return future completed once the outcomes are on disk
+     */
+    public CompletableFuture<Void> outcome(List<ReservationRequest> requests, ReservationOutcome outcome, int responseCode) {
+        StringBuilder sb = new StringBuilder();
+        long now = System.currentTimeMillis();
+        for (ReservationRequest r : requests) {
+            sb.append("O\t").append(now).append('\t').append(r.key()).append('\t').append(outcome.name())
+                    .append('\t').append(responseCode).append('\n');
+        }
+        return append(sb.toString());
+    }
+
+    private CompletableFuture<Void> append(String text) {
+        Append a = new Append(text);
+        queue.add(a);
+        return a.done;
+    }
+
+    private void run() {
+        List<Append> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            long start = Metrics.start();
+            try {
+                StringBuilder sb = new StringBuilder();
+                for (Append a : batch) {
+                    sb.append(a.text);
+                }
+                byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                // one fsync for every append waiting
+                out.getChannel().force(false);
+                fileBytes += bytes.length;
+                Metrics.INSTANCE.count("journal.syncs");
+                Metrics.INSTANCE.count("journal.appends", batch.size());
+                for (Append a : batch) {
+                    a.done.complete(null);
+                }
+                if (fileBytes >= maxFileBytes) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                for (Append a : batch) {
+                    a.done.completeExceptionally(e);
+                }
+            } finally {
+                Metrics.INSTANCE.stop("journal.sync", start);
+            }
+            batch.clear();
+        }
+    }
+
+    // start the next file and delete the files past maxFiles
+    private void rotate() throws IOException {
+        out.close();
+        fileIndex++;
+        out = new FileOutputStream(fileOf(fileIndex), true);
+        fileBytes = 0;
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            int index = indexOf(f);
+            if (index >= 0 && index <= fileIndex - maxFiles) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Scan the files of earlier runs and settle the purchases left in doubt: intents with no
+     * outcome or an UNKNOWN one. The seats left on the server are compared with the seats left
+     * of the intent; no change on any leg means the purchase was not applied, every leg short by
+     * exactly the seats the intent bought on it means it was, anything else cannot be told.
+     * The result is journaled as a recovery record.
+     *
+     * @param teamName is the team fetching the flights
+     * @return the keys of every purchase known or found to be applied
+     */
+    public Set<String> recover(String teamName) {
+        long start = Metrics.start();
+        // [key, intent legs] and [key, last outcome]
+        Map<String, String[]> intents = new LinkedHashMap<>();
+        Map<String, ReservationOutcome> outcomes = new HashMap<>();
+        for (File f : earlier.values()) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    try {
+                        if (fields[0].equals("I") && fields.length == 5) {
+                            intents.put(fields[2], fields);
+                        } else if ((fields[0].equals("O") || fields[0].equals("R")) && fields.length >= 4) {
+                            outcomes.put(fields[2], ReservationOutcome.valueOf(fields[3]));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        // a torn last line, skip it
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        Set<String> applied = new HashSet<>();
+        for (Map.Entry<String, ReservationOutcome> e : outcomes.entrySet()) {
+            if (e.getValue() == ReservationOutcome.RESERVED) applied.add(e.getKey());
+        }
+
+        int[] settled = new int[ReservationOutcome.values().length];
+        Map<String, Flights> lists = new HashMap<>();
+        StringBuilder records = new StringBuilder();
+        for (Map.Entry<String, String[]> e : intents.entrySet()) {
+            ReservationOutcome known = outcomes.get(e.getKey());
+            if (known != null && known != ReservationOutcome.UNKNOWN) continue;
+            ReservationOutcome outcome = settle(teamName, e.getValue(), lists);
+            settled[outcome.ordinal()]++;
+            if (outcome == ReservationOutcome.RESERVED) applied.add(e.getKey());
+            records.append("R\t").append(System.currentTimeMillis()).append('\t').append(e.getKey())
+                    .append('\t').append(outcome.name()).append('\n');
+        }
+        if (records.length() > 0) {
+            append(records.toString());
+            System.out.println("Reservations in doubt from an earlier run: " + settled[ReservationOutcome.RESERVED.ordinal()]
+                    + " went through, " + settled[ReservationOutcome.REJECTED.ordinal()] + " did not, "
+                    + settled[ReservationOutcome.UNKNOWN.ordinal()] + " could not be told.");
+        }
+        Metrics.INSTANCE.stop("journal.recover", start);
+        return applied;
+    }
+
+    // compare the seats left of an intent with the server
+    private ReservationOutcome settle(String teamName, String[] intent, Map<String, Flights> lists) {
+        String[] legs = intent[4].split(",");
+        // [flight number, seats the intent bought on it]
+        Map<String, Integer> bought = new HashMap<>();
+        for (String leg : legs) {
+            bought.merge(leg.split("/")[0], 1, Integer::sum);
+        }
+        int unchanged = 0;
+        int taken = 0;
+        try {
+            SeatClass seatClass = SeatClass.valueOf(intent[3]);
+            for (String leg : legs) {
+                String[] parts = leg.split("/");
+                if (parts.length != 4) return ReservationOutcome.UNKNOWN;
+                int before = Integer.parseInt(parts[3]);
+                String list = parts[1] + " " + parts[2];
+                Flights flights = lists.get(list);
+                if (flights == null) {
+                    flights = ServerInterface.INSTANCE.getFlights(teamName, parts[1], parts[2], "departing");
+                    if (flights == null) return ReservationOutcome.UNKNOWN;
+                    lists.put(list, flights);
+                }
+                for (Flight g : flights) {
+                    if (!g.number().equals(parts[0])) continue;
+                    int drop = before - g.seatsRemaining(seatClass);
+                    if (drop == 0) unchanged++;
+                    else if (drop == bought.get(parts[0])) taken++;
+                    else return ReservationOutcome.UNKNOWN;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // not a record this version wrote
+            return ReservationOutcome.UNKNOWN;
+        }
+        if (unchanged == legs.length) return ReservationOutcome.REJECTED;
+        if (taken == legs.length) return ReservationOutcome.RESERVED;
+        return ReservationOutcome.UNKNOWN;
+    }
+
+    private File fileOf(int index) {
+        return new File(dir, PREFIX + index + SUFFIX);
+    }
+
+    private static int indexOf(File f) {
+        String name = f.getName();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) return -1;
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
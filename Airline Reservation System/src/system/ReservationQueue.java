@@ -0,0 +1,154 @@
+package system;
+
+import flight.Flight;
+import flight.SeatClass;
+import utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class group-commits reservations.
+ * <p>
+ * Callers put their itineraries on a queue and get a future back. A single committer
+ * thread takes the first waiting request, keeps collecting for up to the linger time or
+ * until the batch is full, then reserves the whole batch with FlightController.reserve:
+ * one lockDB, one combined buyTickets and one unlockDB. Under load each lock cycle
+ * carries more bookings, so throughput grows instead of threads fighting for the lock.
+ */
+
+public class ReservationQueue {
+
+    private final FlightController controller;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private volatile boolean closed;
+
+    // a request and the future of its caller
+    private static class Pending {
+        final ReservationRequest request;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Pending(ReservationRequest request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * Start the committer thread
+     *
+     * @param controller reserves each batch
+     * @param maxBatchSize is the most itineraries bought in one lock cycle
+     * @param lingerMillis is how long the committer waits for more requests before committing a batch
+     */
+    public ReservationQueue(FlightController controller, int maxBatchSize, long lingerMillis) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize " + maxBatchSize);
+        if (lingerMillis < 0) throw new IllegalArgumentException("lingerMillis " + lingerMillis);
+        this.controller = controller;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        committer = new Thread(this::run, "ars-reservation-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Queue an itinerary for reservation
+     *
+     * @param flightList is the itinerary to reserve
+     * @param seatClass is the seat class of every leg
+     * @return future completed with true if the itinerary was reserved
+     */
+    public CompletableFuture<Boolean> submit(List<Flight> flightList, SeatClass seatClass) {
+        return submit(new ReservationRequest(flightList, seatClass));
+    }
+
+    /**
+     * Queue an itinerary for reservation under the caller's idempotency key
+     *
+     * @param key is the idempotency key, the same for every attempt at this reservation
+     * @return future completed with true if the itinerary was reserved
+     */
+    public CompletableFuture<Boolean> submit(List<Flight> flightList, SeatClass seatClass, String key) {
+        return submit(new ReservationRequest(flightList, seatClass, key));
+    }
+
+    /**
+     * Queue a reservation, e.g. one retried by the caller with the idempotency key of an earlier attempt
+     *
+     * @param request is the itinerary to reserve with its seat class and key
+     * @return future completed with true if the itinerary was reserved
+     */
+    public CompletableFuture<Boolean> submit(ReservationRequest request) {
+        Pending p = new Pending(request);
+        if (closed) {
+            p.result.completeExceptionally(new IllegalStateException("Reservation queue is closed"));
+            return p.result;
+        }
+        queue.add(p);
+        return p.result;
+    }
+
+    /**
+     * Stop taking requests; the requests already queued are still committed
+     */
+    public void close() {
+        closed = true;
+        committer.interrupt();
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = closed ? queue.poll() : queue.take();
+                if (first == null) break;
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 && !closed ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // close() wakes the committer up, the queued requests are drained by the loop
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+        // requests that raced with close()
+        Pending p;
+        while ((p = queue.poll()) != null) {
+            p.result.completeExceptionally(new IllegalStateException("Reservation queue is closed"));
+        }
+    }
+
+    private void commit(List<Pending> batch) {
+        Metrics.INSTANCE.count("reserve.batches");
+        Metrics.INSTANCE.count("reserve.batched", batch.size());
+        List<ReservationRequest> requests = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            requests.add(p.request);
+        }
+        try {
+            List<Boolean> res = controller.reserve(requests);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(res.get(i));
+            }
+        } catch (RuntimeException e) {
+            for (Pending p : batch) {
+                p.result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package system;
+
+import flight.Flight;
+import flight.SeatClass;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * This class holds one itinerary to reserve and the seat class to reserve on each of its legs.
+ */
+
+public class ReservationRequest {
+
+    private final List<Flight> flights;
+    private final SeatClass seatClass;
+    // idempotency key, the same for every attempt at this reservation
+    private final String key;
+
+    public ReservationRequest(List<Flight> flights, SeatClass seatClass) {
+        this(flights, seatClass, newKey());
+    }
+
+    /**
+     * @param key is the idempotency key; reuse it to retry a reservation, since a request with the
+     *            key of one already applied, or perhaps applied, is not sent again
+     */
+    public ReservationRequest(List<Flight> flights, SeatClass seatClass, String key) {
+        if (key == null || key.isEmpty()) throw new IllegalArgumentException("key");
+        this.flights = Collections.unmodifiableList(new ArrayList<>(flights));
+        this.seatClass = seatClass;
+        this.key = key;
+    }
+
+    /**
+     * Get the legs of the itinerary
+     */
+    public List<Flight> flights() {
+        return flights;
+    }
+
+    public SeatClass seatClass() {
+        return seatClass;
+    }
+
+    /**
+     * Get the idempotency key of the reservation
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * Make a new idempotency key, for a caller that keeps it to retry the reservation with
+     */
+    public static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,81 @@
+package system;
+
+import flight.Flight;
+import flight.SeatClass;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+
+/**
+ * This class holds the state of one search request.
+ * <p>
+ * FlightController and OffHeapFlightSearch keep only reference data and shared caches, so
+ * every search gets a context of its own: the seat class, the local date searched for, the
+ * itineraries found, and the lists of flights the search has used. A list is taken from the
+ * shared cache the first time the search needs it and kept for the rest of the search, so
+ * all steps of one search see the same seat counts even if the cache fetches the list again
+ * meanwhile. A context is used by one thread; one is created per search.
+ *
+ * @param <L> is the type of a list of flights: Flight objects, or record indexes off heap
+ */
+
+public class SearchContext<L> {
+
+    private final SeatClass seatClass;
+    private final LocalDate date;
+    private final long epochDay;
+    private final ArrayList<ArrayList<Flight>> results = new ArrayList<>();
+    // [airport + date + searchType, list] used by this search
+    private final Map<String, L> lists = new HashMap<>();
+
+    /**
+     * @param seatClass is the seat class searched for
+     * @param date is the local date the first leg departs on, or the last leg arrives on searching by arrival
+     */
+    public SearchContext(SeatClass seatClass, LocalDate date) {
+        this.seatClass = seatClass;
+        this.date = date;
+        this.epochDay = date.toEpochDay();
+    }
+
+    public SeatClass seatClass() {
+        return seatClass;
+    }
+
+    public LocalDate date() {
+        return date;
+    }
+
+    /**
+     * Get the date as days since the epoch, for comparing with FlightStore times
+     */
+    public long epochDay() {
+        return epochDay;
+    }
+
+    /**
+     * Get the itineraries found so far
+     */
+    public ArrayList<ArrayList<Flight>> results() {
+        return results;
+    }
+
+    /**
+     * Get a list of flights, taking it from the shared cache the first time this search uses it
+     *
+     * @param key is airport + date + searchType
+     * @param shared gets the list from the shared cache
+     */
+    public L list(String key, Supplier<L> shared) {
+        L list = lists.get(key);
+        if (list == null) {
+            list = shared.get();
+            lists.put(key, list);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,195 @@
+package system;
+
+import flight.Flight;
+import flight.SeatClass;
+import utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class keeps short-lived local holds on seats.
+ * <p>
+ * A hold is placed when an itinerary is selected, and takes one seat per leg out of the
+ * seats left seen by every other search until it is released or expires. The seat counts
+ * held are kept per flight number, so they apply to every Flight loaded for that number.
+ * When flights are fetched again, the holds are reconciled with the server counts: holds
+ * the server can no longer satisfy are dropped, newest first, so a selection that has been
+ * sold out by someone else is found before it is sent to the server.
+ */
+
+public class SeatHolds {
+
+    private final long ttlNanos;
+    private long nextId = 1;
+    // [hold id, hold], oldest first, which is also expiry order
+    private final Map<Long, Hold> holds = new LinkedHashMap<>();
+    // [flight number + seat class, # of seats held], read by the searches without locking
+    private final Map<String, Integer> held = new ConcurrentHashMap<>();
+
+    // the legs held by one selection
+    private static class Hold {
+        final List<Flight> flights;
+        final SeatClass seatClass;
+        final long expiresAt;
+
+        Hold(List<Flight> flights, SeatClass seatClass, long expiresAt) {
+            this.flights = flights;
+            this.seatClass = seatClass;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param ttlMillis is how long a hold lasts unless it is released first
+     */
+    public SeatHolds(long ttlMillis) {
+        if (ttlMillis <= 0) throw new IllegalArgumentException("ttlMillis " + ttlMillis);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Check whether any seats are held, so searches can skip the lookups
+     */
+    public boolean isEmpty() {
+        return held.isEmpty();
+    }
+
+    /**
+     * Get the # of seats held on a flight
+     *
+     * @param number is the flight number
+     * @param seatClass is the seat class
+     */
+    public int held(String number, SeatClass seatClass) {
+        Integer n = held.get(key(number, seatClass));
+        return n == null ? 0 : n;
+    }
+
+    /**
+     * Get the # of seats left on a flight once the held seats are taken out
+     *
+     * @return # of seats left, zero or negative if sold out or fully held
+     */
+    public int available(Flight flight, SeatClass seatClass) {
+        return flight.seatsRemaining(seatClass) - held(flight.number(), seatClass);
+    }
+
+    /**
+     * Hold one seat on every leg of the itineraries
+     *
+     * @param itineraries are the selected itineraries, e.g. both ways of a round trip
+     * @param seatClass is the seat class of every leg
+     * @return id of the hold, or -1 if a leg has no seat left that is not already held
+     */
+    public synchronized long hold(List<? extends List<Flight>> itineraries, SeatClass seatClass) {
+        expire();
+        Map<String, Integer> wanted = new HashMap<>();
+        List<Flight> legs = new ArrayList<>();
+        for (List<Flight> itinerary : itineraries) {
+            for (Flight f : itinerary) {
+                int n = wanted.merge(key(f.number(), seatClass), 1, Integer::sum);
+                if (available(f, seatClass) < n) {
+                    Metrics.INSTANCE.count("holds.rejected");
+                    return -1;
+                }
+                legs.add(f);
+            }
+        }
+        long id = nextId++;
+        holds.put(id, new Hold(Collections.unmodifiableList(legs), seatClass, System.nanoTime() + ttlNanos));
+        add(legs, seatClass, 1);
+        Metrics.INSTANCE.count("holds.placed");
+        return id;
+    }
+
+    /**
+     * Release a hold, e.g. once its itineraries are bought or discarded
+     *
+     * @return true if the hold was still active
+     */
+    public synchronized boolean release(long id) {
+        Hold h = holds.remove(id);
+        if (h == null) return false;
+        add(h.flights, h.seatClass, -1);
+        return true;
+    }
+
+    /**
+     * Check that a hold has neither expired nor been dropped by a reconciliation
+     */
+    public synchronized boolean isActive(long id) {
+        expire();
+        return holds.containsKey(id);
+    }
+
+    /**
+     * Reconcile the holds with flights just fetched from the server. Where the server has
+     * fewer seats left than are held, holds on the flight are dropped, newest first, until
+     * the rest fit.
+     *
+     * @param flights are the flights with the current server seat counts
+     */
+    public synchronized void reconcile(Collection<Flight> flights) {
+        expire();
+        if (holds.isEmpty()) return;
+        for (Flight f : flights) {
+            for (SeatClass s : SeatClass.values()) {
+                int left = Math.max(0, f.seatsRemaining(s));
+                if (held(f.number(), s) <= left) continue;
+                List<Long> newestFirst = new ArrayList<>(holds.keySet());
+                Collections.reverse(newestFirst);
+                for (long id : newestFirst) {
+                    if (held(f.number(), s) <= left) break;
+                    Hold h = holds.get(id);
+                    if (h.seatClass == s && holdsFlight(h, f.number())) {
+                        release(id);
+                        Metrics.INSTANCE.count("holds.dropped");
+                    }
+                }
+            }
+        }
+    }
+
+    // drop expired holds, which are at the front
+    private void expire() {
+        long now = System.nanoTime();
+        Iterator<Hold> it = holds.values().iterator();
+        while (it.hasNext()) {
+            Hold h = it.next();
+            if (h.expiresAt - now > 0) break;
+            it.remove();
+            add(h.flights, h.seatClass, -1);
+            Metrics.INSTANCE.count("holds.expired");
+        }
+    }
+
+    private void add(List<Flight> legs, SeatClass seatClass, int delta) {
+        for (Flight f : legs) {
+            held.compute(key(f.number(), seatClass), (k, n) -> {
+                int sum = (n == null ? 0 : n) + delta;
+                return sum > 0 ? sum : null;
+            });
+        }
+    }
+
+    private static boolean holdsFlight(Hold h, String number) {
+        for (Flight f : h.flights) {
+            if (f.number().equals(number)) return true;
+        }
+        return false;
+    }
+
+    private static String key(String number, SeatClass seatClass) {
+        return number + seatClass;
+    }
+}
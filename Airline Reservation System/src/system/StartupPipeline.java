@@ -0,0 +1,200 @@
+package system;
+
+import airplane.Airplanes;
+import airport.Airport;
+import airport.Airports;
+import dao.ReferenceSnapshot;
+import dao.ServerInterface;
+import utils.Metrics;
+import utils.Saps;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+
+/**
+ * This class loads the reference data a FlightController needs before it can search.
+ * Airplanes and airports are fetched from the server at the same time. Airport time zones
+ * are not resolved here: each airport resolves its own on first use, and the
+ * Saps.POPULAR_AIRPORTS are filled in by a daemon thread once startup is done.
+ * The time spent in each phase is kept for the timing report.
+ * <p>
+ * After a load from the server the data is saved as a ReferenceSnapshot. A later start
+ * reads the snapshot instead, and checks it against the server in the background; a stale
+ * snapshot is rewritten so the following start picks up the change.
+ */
+
+public class StartupPipeline {
+
+    private final String teamName;
+    private Airplanes airplanes;
+    private Airports airports;
+    // [phase, elapsed ms] in the order the phases completed
+    private final Map<String, Long> timings = new LinkedHashMap<>();
+
+    public StartupPipeline(String teamName) {
+        this.teamName = teamName;
+    }
+
+    /**
+     * Fetch airplanes and airports and resolve the airport zones
+     *
+     * @throws IllegalStateException if the reference data cannot be loaded
+     */
+    public void run() {
+        long start = System.nanoTime();
+        File snapshotFile = snapshotFile();
+        if (snapshotFile != null) {
+            ReferenceSnapshot snapshot = timed("snapshot read", () -> ReferenceSnapshot.read(snapshotFile));
+            if (snapshot != null && isFresh(snapshot)) {
+                airplanes = snapshot.airplanes();
+                airports = snapshot.airports();
+                record("total", start);
+                verifyInBackground(snapshot, snapshotFile);
+                return;
+            }
+        }
+
+        load();
+        record("total", start);
+        fillInBackground(snapshotFile);
+    }
+
+    /**
+     * Fetch airplanes and airports from the server at the same time
+     */
+    private void load() {
+        ExecutorService executor = Executors.newFixedThreadPool(Saps.STARTUP_THREADS, daemonThreads());
+        try {
+            Future<Airplanes> airplanesFuture = executor.submit(() -> timed("airplanes fetch",
+                    () -> ServerInterface.INSTANCE.getAirplanes(teamName)));
+            Future<Airports> airportsFuture = executor.submit(() -> timed("airports fetch",
+                    () -> ServerInterface.INSTANCE.getAirports(teamName)));
+
+            airports = airportsFuture.get();
+            if (airports == null) {
+                throw new IllegalStateException("Unable to load airports from server");
+            }
+            airplanes = airplanesFuture.get();
+            if (airplanes == null) {
+                throw new IllegalStateException("Unable to load airplanes from server");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Startup interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Startup failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Resolve the zones of the popular airports on a daemon thread, then save the snapshot,
+     * which resolves the zones of the remaining airports
+     */
+    private void fillInBackground(File snapshotFile) {
+        Airports loaded = airports;
+        Airplanes loadedAirplanes = airplanes;
+        Thread t = new Thread(() -> {
+            Set<String> popular = new HashSet<>(Arrays.asList(Saps.POPULAR_AIRPORTS));
+            for (Airport a : loaded) {
+                if (popular.contains(a.code())) {
+                    a.generateZoneId();
+                }
+            }
+            if (snapshotFile != null) {
+                ReferenceSnapshot.write(snapshotFile, loadedAirplanes, loaded);
+            }
+        }, "ars-zone-fill");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Compare the snapshot with the server on a daemon thread, and rewrite it if it is stale
+     */
+    private void verifyInBackground(ReferenceSnapshot snapshot, File snapshotFile) {
+        Thread t = new Thread(() -> {
+            Airplanes serverAirplanes = ServerInterface.INSTANCE.getAirplanes(teamName);
+            Airports serverAirports = ServerInterface.INSTANCE.getAirports(teamName);
+            if (serverAirplanes == null || serverAirports == null) {
+                return;
+            }
+            if (ReferenceSnapshot.fingerprint(serverAirplanes, serverAirports) == snapshot.fingerprint()) {
+                return;
+            }
+            if (ReferenceSnapshot.write(snapshotFile, serverAirplanes, serverAirports)) {
+                System.err.println("Airports or airplanes changed on the server, restart to use the new data.");
+            }
+        }, "ars-snapshot-check");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static boolean isFresh(ReferenceSnapshot snapshot) {
+        long age = System.currentTimeMillis() - snapshot.savedAt();
+        return age >= 0 && age < TimeUnit.HOURS.toMillis(Saps.REFERENCE_SNAPSHOT_MAX_AGE_HOURS);
+    }
+
+    private static File snapshotFile() {
+        return Saps.REFERENCE_SNAPSHOT.isEmpty() ? null : new File(Saps.REFERENCE_SNAPSHOT);
+    }
+
+    public Airplanes getAirplanes() {
+        return airplanes;
+    }
+
+    public Airports getAirports() {
+        return airports;
+    }
+
+    /**
+     * Timing breakdown of the startup phases
+     *
+     * @return one "phase: ms" line per phase
+     */
+    public String timingReport() {
+        StringBuilder sb = new StringBuilder("Startup timing:");
+        synchronized (timings) {
+            for (Map.Entry<String, Long> e : timings.entrySet()) {
+                sb.append(System.lineSeparator()).append("  ").append(e.getKey()).append(": ").append(e.getValue()).append(" ms");
+            }
+        }
+        return sb.toString();
+    }
+
+    private <T> T timed(String phase, Callable<T> task) {
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(phase + " failed", e);
+        } finally {
+            record(phase, start);
+        }
+    }
+
+    private void record(String phase, long startNanos) {
+        Metrics.INSTANCE.stop("startup." + phase, startNanos);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        synchronized (timings) {
+            timings.put(phase, elapsed);
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return r -> {
+            Thread t = new Thread(r, "ars-startup");
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
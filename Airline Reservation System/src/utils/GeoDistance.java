@@ -0,0 +1,61 @@
+package utils;
+
+/**
+ * This class holds great-circle distance helpers for latitude/longitude positions.
+ * Positions are also mapped to points on the unit sphere, where straight line (chord)
+ * distance orders points the same way as great-circle distance.
+ */
+public class GeoDistance {
+    /**
+     * Mean radius of the earth in km
+     */
+    public static final double EARTH_RADIUS_KM = 6371.0;
+
+    /**
+     * Great-circle distance between two positions
+     *
+     * @param lat1 is the latitude of the first position in decimal degrees
+     * @param lon1 is the longitude of the first position in decimal degrees
+     * @param lat2 is the latitude of the second position in decimal degrees
+     * @param lon2 is the longitude of the second position in decimal degrees
+     * @return distance in km
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Map a position to a point on the unit sphere
+     *
+     * @return [x, y, z]
+     */
+    public static double[] toUnitVector(double latitude, double longitude) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        return new double[] {Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat)};
+    }
+
+    /**
+     * Convert a chord length on the unit sphere to a great-circle distance
+     *
+     * @param chord is the straight line distance between two unit vectors
+     * @return distance in km
+     */
+    public static double chordToKm(double chord) {
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, chord / 2));
+    }
+
+    /**
+     * Convert a great-circle distance to a chord length on the unit sphere
+     *
+     * @param km is the great-circle distance
+     * @return straight line distance between two unit vectors that far apart
+     */
+    public static double kmToChord(double km) {
+        return 2 * Math.sin(Math.min(Math.PI, km / EARTH_RADIUS_KM) / 2);
+    }
+}
@@ -0,0 +1,140 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class is a static 3-d tree over latitude/longitude positions.
+ * <p>
+ * Positions are stored as unit vectors, so the tree has no trouble at the
+ * poles or across the 180th meridian. The tree is built once and is read only
+ * afterwards, so it can be shared between threads.
+ *
+ * @param <T> is the type of value stored with each position
+ */
+public class KdTree<T> {
+    // the node of range [lo, hi) is at its middle, with the left and right subtrees on each side
+    private final double[][] mPoints;
+    private final List<T> mValues;
+    private final int mSize;
+
+    /**
+     * Build the tree
+     *
+     * @param latitudes is the latitude of each value in decimal degrees
+     * @param longitudes is the longitude of each value in decimal degrees
+     * @param values are the values stored with the positions
+     */
+    public KdTree(double[] latitudes, double[] longitudes, List<T> values) {
+        mSize = values.size();
+        Integer[] order = new Integer[mSize];
+        double[][] points = new double[mSize][];
+        for (int i = 0; i < mSize; i++) {
+            order[i] = i;
+            points[i] = GeoDistance.toUnitVector(latitudes[i], longitudes[i]);
+        }
+        build(order, points, 0, mSize, 0);
+
+        mPoints = new double[mSize][];
+        mValues = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            mPoints[i] = points[order[i]];
+            mValues.add(values.get(order[i]));
+        }
+    }
+
+    // order [lo, hi) so the median on the axis is at the middle, then recurse on both halves
+    private static void build(Integer[] order, double[][] points, int lo, int hi, int axis) {
+        if (hi - lo <= 1) return;
+        Arrays.sort(order, lo, hi, Comparator.comparingDouble((Integer i) -> points[i][axis]));
+        int mid = (lo + hi) >>> 1;
+        build(order, points, lo, mid, (axis + 1) % 3);
+        build(order, points, mid + 1, hi, (axis + 1) % 3);
+    }
+
+    /**
+     * Get the # of positions in the tree
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Find the value nearest to a position
+     *
+     * @return the nearest value, or null if the tree is empty
+     */
+    public T nearest(double latitude, double longitude) {
+        return nearestWithin(latitude, longitude, Double.MAX_VALUE);
+    }
+
+    /**
+     * Find the value nearest to a position, if it is close enough
+     *
+     * @param maxKm is the largest great-circle distance accepted
+     * @return the nearest value, or null if there is none within maxKm
+     */
+    public T nearestWithin(double latitude, double longitude, double maxKm) {
+        if (mSize == 0) return null;
+        double[] q = GeoDistance.toUnitVector(latitude, longitude);
+        double[] best = {Double.MAX_VALUE, -1};
+        nearest(q, 0, mSize, 0, best);
+        if (GeoDistance.chordToKm(Math.sqrt(best[0])) > maxKm) return null;
+        return mValues.get((int) best[1]);
+    }
+
+    /**
+     * Find every value within a distance of a position
+     *
+     * @param maxKm is the largest great-circle distance accepted
+     * @return values within maxKm, in no particular order
+     */
+    public List<T> within(double latitude, double longitude, double maxKm) {
+        List<T> res = new ArrayList<>();
+        if (mSize == 0) return res;
+        double chord = GeoDistance.kmToChord(maxKm);
+        within(GeoDistance.toUnitVector(latitude, longitude), chord * chord, 0, mSize, 0, res);
+        return res;
+    }
+
+    private void within(double[] q, double maxSquared, int lo, int hi, int axis, List<T> res) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        if (squaredDistance(q, mPoints[mid]) <= maxSquared) {
+            res.add(mValues.get(mid));
+        }
+        double diff = q[axis] - mPoints[mid][axis];
+        int next = (axis + 1) % 3;
+        // only visit a side the search sphere reaches into
+        if (diff < 0 || diff * diff <= maxSquared) within(q, maxSquared, lo, mid, next, res);
+        if (diff >= 0 || diff * diff <= maxSquared) within(q, maxSquared, mid + 1, hi, next, res);
+    }
+
+    private void nearest(double[] q, int lo, int hi, int axis, double[] best) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        double d = squaredDistance(q, mPoints[mid]);
+        if (d < best[0]) {
+            best[0] = d;
+            best[1] = mid;
+        }
+        double diff = q[axis] - mPoints[mid][axis];
+        int next = (axis + 1) % 3;
+        if (diff < 0) {
+            nearest(q, lo, mid, next, best);
+            if (diff * diff < best[0]) nearest(q, mid + 1, hi, next, best);
+        } else {
+            nearest(q, mid + 1, hi, next, best);
+            if (diff * diff < best[0]) nearest(q, lo, mid, next, best);
+        }
+    }
+
+    private static double squaredDistance(double[] a, double[] b) {
+        double dx = a[0] - b[0];
+        double dy = a[1] - b[1];
+        double dz = a[2] - b[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
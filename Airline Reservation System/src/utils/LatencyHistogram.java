@@ -0,0 +1,108 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a lock free histogram of durations in ns.
+ * <p>
+ * Each power of two range is split into 8 buckets, so a percentile is reported within
+ * 12.5% of the true value. Recording is one atomic increment plus two adders, cheap
+ * enough to leave on for every operation.
+ */
+public class LatencyHistogram {
+    // values 0..7 get a bucket each, then 8 buckets per power of two up to 2^63
+    private static final int SUB_BUCKETS = 8;
+    private static final int BUCKETS = (64 - 3) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder mCount = new LongAdder();
+    private final LongAdder mTotal = new LongAdder();
+    private final LongAccumulator mMax = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record one duration
+     *
+     * @param nanos is the duration in ns, negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        mBuckets.incrementAndGet(bucketOf(value));
+        mCount.increment();
+        mTotal.add(value);
+        mMax.accumulate(value);
+    }
+
+    public long count() {
+        return mCount.sum();
+    }
+
+    /**
+     * Get the sum of all durations in ns
+     */
+    public long totalNanos() {
+        return mTotal.sum();
+    }
+
+    public long maxNanos() {
+        return mMax.get();
+    }
+
+    public double meanNanos() {
+        long count = count();
+        return count == 0 ? 0 : (double) totalNanos() / count;
+    }
+
+    /**
+     * Get a percentile of the recorded durations
+     *
+     * @param percentile is between 0 and 100
+     * @return upper bound in ns of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long percentileNanos(double percentile) {
+        long count = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = mBuckets.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(upperBoundOf(i), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    /**
+     * Forget all recorded durations
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.reset();
+        mTotal.reset();
+        mMax.reset();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - 3)) & (SUB_BUCKETS - 1);
+        return (msb - 2) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int msb = bucket / SUB_BUCKETS + 2;
+        int sub = bucket % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (msb - 3);
+        return lower + (1L << (msb - 3)) - 1;
+    }
+}
@@ -0,0 +1,146 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class holds the always-on timers and counters of the system.
+ * <p>
+ * A timed operation is bracketed with start() and stop(name, start), which records the
+ * duration in the operation's LatencyHistogram. Counters are plain adders. Both are
+ * created on first use, can be read as a text dump, and are exported over JMX
+ * as ars:type=Metrics.
+ */
+public enum Metrics implements MetricsMXBean {
+    INSTANCE;
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Map<String, LatencyHistogram> mTimers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> mCounters = new ConcurrentHashMap<>();
+
+    Metrics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("ars:type=Metrics"));
+        } catch (JMException e) {
+            System.out.println("Metrics are not available over JMX: " + e);
+        }
+    }
+
+    /**
+     * Start timing an operation
+     *
+     * @return start time to pass to stop
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the duration of an operation
+     *
+     * @param operation is the name of the timed operation
+     * @param startNanos is the value returned by start
+     */
+    public void stop(String operation, long startNanos) {
+        timer(operation).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Get the histogram of an operation, creating it if needed
+     */
+    public LatencyHistogram timer(String operation) {
+        LatencyHistogram timer = mTimers.get(operation);
+        return timer != null ? timer : mTimers.computeIfAbsent(operation, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Add one to a counter
+     */
+    public void count(String counter) {
+        count(counter, 1);
+    }
+
+    /**
+     * Add to a counter
+     */
+    public void count(String counter, long n) {
+        LongAdder adder = mCounters.get(counter);
+        if (adder == null) adder = mCounters.computeIfAbsent(counter, k -> new LongAdder());
+        adder.add(n);
+    }
+
+    /**
+     * Get the value of a counter
+     */
+    public long counter(String counter) {
+        LongAdder adder = mCounters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    @Override
+    public String getDump() {
+        return dump();
+    }
+
+    /**
+     * Format all timers and counters as text, sorted by name
+     */
+    public String dump() {
+        String nl = System.lineSeparator();
+        StringBuilder sb = new StringBuilder("Timers (ms):").append(nl);
+        sb.append(String.format("  %-28s %8s %10s %10s %10s %10s %10s%n", "operation", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<>(mTimers).entrySet()) {
+            LatencyHistogram h = e.getValue();
+            sb.append(String.format("  %-28s %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n", e.getKey(), h.count(),
+                    h.meanNanos() / NANOS_PER_MILLI, h.percentileNanos(50) / NANOS_PER_MILLI,
+                    h.percentileNanos(90) / NANOS_PER_MILLI, h.percentileNanos(99) / NANOS_PER_MILLI,
+                    h.maxNanos() / NANOS_PER_MILLI));
+        }
+        sb.append("Counters:").append(nl);
+        for (Map.Entry<String, Long> e : getCounters().entrySet()) {
+            sb.append("  ").append(e.getKey()).append(": ").append(e.getValue()).append(nl);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> res = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : mCounters.entrySet()) {
+            res.put(e.getKey(), e.getValue().sum());
+        }
+        return res;
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> res = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : mTimers.entrySet()) {
+            res.put(e.getKey(), e.getValue().count());
+        }
+        return res;
+    }
+
+    @Override
+    public double percentileMillis(String operation, double percentile) {
+        LatencyHistogram timer = mTimers.get(operation);
+        return timer == null ? 0 : timer.percentileNanos(percentile) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : mTimers.values()) {
+            h.reset();
+        }
+        for (LongAdder a : mCounters.values()) {
+            a.reset();
+        }
+    }
+}
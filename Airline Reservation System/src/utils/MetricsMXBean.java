@@ -0,0 +1,37 @@
+package utils;
+
+import java.util.Map;
+
+/**
+ * JMX view of the Metrics, registered as ars:type=Metrics
+ */
+public interface MetricsMXBean {
+    /**
+     * Get the text dump of all timers and counters
+     */
+    String getDump();
+
+    /**
+     * Get the value of every counter by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Get the # of calls of every timed operation by name
+     */
+    Map<String, Long> getOperationCounts();
+
+    /**
+     * Get a percentile of an operation's durations
+     *
+     * @param operation is the name of the timed operation
+     * @param percentile is between 0 and 100
+     * @return duration in ms, 0 if the operation was never timed
+     */
+    double percentileMillis(String operation, double percentile);
+
+    /**
+     * Forget all recorded timings and counts
+     */
+    void reset();
+}
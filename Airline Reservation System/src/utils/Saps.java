@@ -10,6 +10,12 @@ package utils;
  *
  */
 public class Saps {
+	/**
+	 * Address of the reservation server, set with -Dars.serverUrl e.g. to run against a stand-in
+	 */
+	public static final String SERVER_URL = System.getProperty("ars.serverUrl",
+			"http://cs509.cs.wpi.edu:8181/CS509.server/ReservationSystem");
+
 	/**
 	 * Constant values used for latitude and longitude range validation
 	 */
@@ -39,4 +45,106 @@ public class Saps {
 	public static final long MAX_LAYOVER_TIME = 120; //in minutes
 	public static final long MIN_LAYOVER_TIME = 30;
 
+	/**
+	 * Longest itinerary a search follows, as a multiple of the direct distance between
+	 * departure and arrival airports plus a fixed allowance in km for short trips.
+	 * Set with -Dars.maxDetourFactor, 0 turns pruning off.
+	 */
+	public static final double MAX_DETOUR_FACTOR = Double.parseDouble(System.getProperty("ars.maxDetourFactor", "2.0"));
+	public static final double DETOUR_ALLOWANCE_KM = 500;
+
+	/**
+	 * How long a list of flights fetched from the server is shared by searches before it is fetched again (in seconds)
+	 */
+	public static final long FLIGHT_CACHE_TTL_SECONDS = Long.getLong("ars.flightCacheTtlSeconds", 60L);
+
+	/**
+	 * Headless batch search: # of searches run at the same time
+	 */
+	public static final int BATCH_SEARCH_THREADS = Integer.getInteger("ars.batchSearchThreads", 8);
+
+	/**
+	 * Embedded HTTP search service: port, and # of requests handled at the same time
+	 */
+	public static final int SERVICE_PORT = Integer.getInteger("ars.servicePort", 8080);
+	public static final int SERVICE_THREADS = Integer.getInteger("ars.serviceThreads", 200);
+
+	/**
+	 * Largest nearby airports radius in km a service search accepts, set with -Dars.serviceMaxRadiusKm
+	 */
+	public static final int SERVICE_MAX_RADIUS_KM = Integer.getInteger("ars.serviceMaxRadiusKm", 500);
+
+	/**
+	 * Group commit of queued reservations: most itineraries bought in one server lock cycle,
+	 * and how long the committer waits for more requests before buying (in ms)
+	 */
+	public static final int RESERVATION_BATCH_SIZE = Integer.getInteger("ars.reservationBatchSize", 32);
+	public static final long RESERVATION_LINGER_MS = Long.getLong("ars.reservationLingerMs", 5L);
+
+	/**
+	 * How long a seat hold on a selected itinerary lasts before it expires (in seconds)
+	 */
+	public static final long SEAT_HOLD_TTL_SECONDS = Long.getLong("ars.seatHoldTtlSeconds", 600L);
+
+	/**
+	 * Server lock lease: how long a lease may be used, how long to wait for the lock,
+	 * and the backoff range between attempts while it is locked by someone else (in ms)
+	 */
+	public static final long LOCK_LEASE_MS = Long.getLong("ars.lockLeaseMs", 10000L);
+	public static final long LOCK_WAIT_MS = Long.getLong("ars.lockWaitMs", 30000L);
+	public static final long LOCK_BACKOFF_MIN_MS = 50;
+	public static final long LOCK_BACKOFF_MAX_MS = 2000;
+
+	/**
+	 * buyTickets: connect and read timeout (in ms), how many times a purchase whose outcome
+	 * is unknown is sent again once the server is found not to have applied it, and the
+	 * # of idempotency keys of applied purchases remembered
+	 */
+	public static final int RESERVE_TIMEOUT_MS = Integer.getInteger("ars.reserveTimeoutMs", 30000);
+	public static final int RESERVE_RETRIES = Integer.getInteger("ars.reserveRetries", 2);
+	public static final int APPLIED_KEYS_MAX = 10000;
+
+	/**
+	 * Fetch the current seat counts of the legs before taking the server lock to buy them,
+	 * with this many lists fetched at the same time
+	 */
+	public static final boolean REVALIDATE_BEFORE_RESERVE = !Boolean.getBoolean("ars.noRevalidate");
+	public static final int REVALIDATION_THREADS = 4;
+
+	/**
+	 * Directory of the reservation journal, none unless set with -Dars.reservationJournal=dir;
+	 * size at which a journal file is rotated, and how many files are kept
+	 */
+	public static final String RESERVATION_JOURNAL = System.getProperty("ars.reservationJournal", "");
+	public static final long JOURNAL_MAX_FILE_BYTES = 4L * 1024 * 1024;
+	public static final int JOURNAL_MAX_FILES = 8;
+
+	/**
+	 * Keep the flight schedule in the off heap FlightStore instead of Flight objects.
+	 * Enabled with -Dars.offHeapSchedule=true
+	 */
+	public static final boolean OFF_HEAP_SCHEDULE = Boolean.getBoolean("ars.offHeapSchedule");
+	public static final int OFF_HEAP_INITIAL_FLIGHTS = 4096;
+
+	/**
+	 * Max # of threads used to load reference data at startup
+	 */
+	public static final int STARTUP_THREADS = 8;
+
+	/**
+	 * Binary snapshot of the airports and airplanes written after a load from the server.
+	 * Off unless a path is given with -Dars.referenceSnapshot.
+	 * A snapshot older than REFERENCE_SNAPSHOT_MAX_AGE_HOURS is ignored.
+	 */
+	public static final String REFERENCE_SNAPSHOT = System.getProperty("ars.referenceSnapshot", "");
+	public static final long REFERENCE_SNAPSHOT_MAX_AGE_HOURS = 24;
+
+	/**
+	 * Busy airports whose time zones are resolved in the background after startup,
+	 * all other airports resolve theirs on first use
+	 */
+	public static final String[] POPULAR_AIRPORTS = {
+			"ATL", "ORD", "LAX", "DFW", "DEN", "JFK", "SFO", "SEA", "LAS", "MCO",
+			"CLT", "PHX", "MIA", "IAH", "EWR", "BOS", "MSP", "DTW", "PHL", "LGA"};
+
 }
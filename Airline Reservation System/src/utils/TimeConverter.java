@@ -33,4 +33,14 @@ public class TimeConverter {
         ZonedDateTime zonedTime = ZonedDateTime.of(serverTime, ZoneId.of("GMT"));
         return zonedTime.withZoneSameInstant(zoneid).toLocalDateTime();
     }
+
+    /**
+     * Convert time by the precomputed offset table of the airport zone
+     * @param serverTime is the time in xml on the server
+     * @param table is the airport zone offset table
+     * @return airport local time
+     */
+    public static LocalDateTime convertTimeByTable(LocalDateTime serverTime, ZoneOffsetTable table){
+        return table.toLocal(serverTime);
+    }
 }
@@ -0,0 +1,88 @@
+package utils;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class holds the UTC offsets of a time zone over the schedule window,
+ * so a GMT time is converted to local time with one array lookup and an addition.
+ * <p>
+ * The window is split into slots of SLOT_MINUTES, and each slot stores the offset
+ * in effect during it. Daylight saving transitions fall on slot boundaries, so the
+ * table is exact inside the window. Times outside the window fall back to the zone rules.
+ * Tables are immutable and shared by all airports in the same zone.
+ */
+public class ZoneOffsetTable {
+    // slot length in minutes, all zone transitions happen on a quarter hour
+    private static final int SLOT_MINUTES = 15;
+
+    // first and last minute of the schedule window in epoch minutes,
+    // widened by a day on each side for next/previous day connections
+    private static final long WINDOW_START = LocalDateTime.of(Saps.DEFAULT_YEAR, Saps.DEFAULT_MONTH, Saps.MIN_DATE,
+            Saps.MIN_HOUR, Saps.MIN_MINUTE).minusDays(1).toEpochSecond(ZoneOffset.UTC) / 60;
+    private static final long WINDOW_END = LocalDateTime.of(Saps.DEFAULT_YEAR, Saps.DEFAULT_MONTH, Saps.MAX_DATE,
+            Saps.MAX_HOUR, Saps.MAX_MINUTE).plusDays(1).toEpochSecond(ZoneOffset.UTC) / 60;
+
+    // one table per zone
+    private static final Map<ZoneId, ZoneOffsetTable> tables = new ConcurrentHashMap<>();
+
+    private final ZoneRules mRules;
+    // offset in seconds per slot
+    private final int[] mOffsets;
+
+    private ZoneOffsetTable(ZoneId zoneId) {
+        mRules = zoneId.getRules();
+        int slots = (int) ((WINDOW_END - WINDOW_START) / SLOT_MINUTES) + 1;
+        mOffsets = new int[slots];
+        for (int i = 0; i < slots; i++) {
+            Instant slotStart = Instant.ofEpochSecond((WINDOW_START + (long) i * SLOT_MINUTES) * 60);
+            mOffsets[i] = mRules.getOffset(slotStart).getTotalSeconds();
+        }
+    }
+
+    /**
+     * Get the offset table of a zone, building it on first use
+     *
+     * @param zoneId is the airport time zone id
+     * @return the shared offset table of the zone
+     */
+    public static ZoneOffsetTable of(ZoneId zoneId) {
+        ZoneOffsetTable table = tables.get(zoneId);
+        if (table == null) {
+            table = new ZoneOffsetTable(zoneId);
+            ZoneOffsetTable prev = tables.putIfAbsent(zoneId, table);
+            if (prev != null) table = prev;
+        }
+        return table;
+    }
+
+    /**
+     * Get the UTC offset in effect at a GMT time
+     *
+     * @param epochSecond is the GMT time in seconds since the epoch
+     * @return the offset in seconds
+     */
+    public int offsetSeconds(long epochSecond) {
+        long minute = Math.floorDiv(epochSecond, 60L);
+        if (minute >= WINDOW_START && minute <= WINDOW_END) {
+            return mOffsets[(int) ((minute - WINDOW_START) / SLOT_MINUTES)];
+        }
+        return mRules.getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+    }
+
+    /**
+     * Convert a GMT time to local time
+     *
+     * @param serverTime is the time in xml on the server
+     * @return local time in this zone
+     */
+    public LocalDateTime toLocal(LocalDateTime serverTime) {
+        long epochSecond = serverTime.toEpochSecond(ZoneOffset.UTC);
+        return LocalDateTime.ofEpochSecond(epochSecond + offsetSeconds(epochSecond), serverTime.getNano(), ZoneOffset.UTC);
+    }
+}